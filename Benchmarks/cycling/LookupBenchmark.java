@@ -0,0 +1,57 @@
+package cycling;
+
+import java.time.LocalTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures queries that resolve a stage or rider by ID before reading a single
+ * value, picking a random stage and rider on every call.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+    @Benchmark
+    public double stageLength(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getStageLength(randomStage(fixture));
+    }
+
+    @Benchmark
+    public LocalTime[] riderResults(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getRiderResultsInStage(randomStage(fixture), randomRider(fixture));
+    }
+
+    @Benchmark
+    public LocalTime riderAdjustedElapsedTime(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getRiderAdjustedElapsedTimeInStage(randomStage(fixture), randomRider(fixture));
+    }
+
+    @Benchmark
+    public int riderRank(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getRiderRankInStage(randomStage(fixture), randomRider(fixture));
+    }
+
+    static int randomStage(PortalFixture fixture) {
+        return fixture.stageIds[ThreadLocalRandom.current().nextInt(fixture.stageIds.length)];
+    }
+
+    static int randomRider(PortalFixture fixture) {
+        return fixture.riderIds[ThreadLocalRandom.current().nextInt(fixture.riderIds.length)];
+    }
+}
@@ -0,0 +1,58 @@
+package cycling;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the name uniqueness checks of {@code createRace} and
+ * {@code createTeam}, both when the name is taken and when a new race or team
+ * is created and removed again.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameBenchmark {
+
+    @Benchmark
+    public boolean createRaceWithTakenName(PortalFixture fixture) throws InvalidNameException {
+        try {
+            fixture.portal.createRace("Race0", null);
+            return false;
+        } catch (IllegalNameException e) {
+            return true;
+        }
+    }
+
+    @Benchmark
+    public void createAndRemoveRace(PortalFixture fixture) throws Exception {
+        fixture.portal.removeRaceById(fixture.portal.createRace("Benchmark", null));
+    }
+
+    @Benchmark
+    public boolean createTeamWithTakenName(PortalFixture fixture) throws InvalidNameException {
+        try {
+            fixture.portal.createTeam("Fixture", null);
+            return false;
+        } catch (IllegalNameException e) {
+            return true;
+        }
+    }
+
+    @Benchmark
+    public void createAndRemoveTeam(PortalFixture fixture) throws Exception {
+        fixture.portal.removeTeam(fixture.portal.createTeam("Benchmark", null));
+    }
+}
@@ -0,0 +1,71 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures saving the fixture portal and loading it back, fully or lazily.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    /**
+     * A snapshot of the fixture portal in a temporary file.
+     */
+    @State(Scope.Benchmark)
+    public static class SnapshotFile {
+        Path path;
+
+        @Setup
+        public void save(PortalFixture fixture) throws IOException {
+            path = Files.createTempFile("cycling-portal", ".bin");
+            fixture.portal.saveCyclingPortal(path.toString());
+        }
+
+        @TearDown
+        public void delete() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Benchmark
+    public void save(PortalFixture fixture, SnapshotFile file) throws IOException {
+        fixture.portal.saveCyclingPortal(file.path.toString());
+    }
+
+    @Benchmark
+    public CyclingPortalImpl load(SnapshotFile file) throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        portal.loadCyclingPortal(file.path.toString());
+        return portal;
+    }
+
+    @Benchmark
+    public CyclingPortalImpl open(SnapshotFile file) throws IOException {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        portal.openCyclingPortal(file.path.toString());
+        return portal;
+    }
+}
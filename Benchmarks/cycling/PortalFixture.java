@@ -0,0 +1,102 @@
+package cycling;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * PortalFixture builds the portal the benchmarks run against: a number of races,
+ * each with a number of stages holding a number of checkpoints, and one team of
+ * riders with a result in every stage. Times are random but seeded, so every
+ * run measures the same data.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+@State(Scope.Benchmark)
+public class PortalFixture {
+    @Param({ "3" })
+    public int races;
+
+    @Param({ "21" })
+    public int stagesPerRace;
+
+    @Param({ "4" })
+    public int checkpointsPerStage;
+
+    @Param({ "200", "20000" })
+    public int riders;
+
+    public CyclingPortalImpl portal;
+    public int[] raceIds;
+    public int[] stageIds;
+    public int[] riderIds;
+    public int teamId;
+
+    @Setup
+    public void build() throws Exception {
+        portal = new CyclingPortalImpl();
+        Random random = new Random(42);
+        teamId = portal.createTeam("Fixture", null);
+        riderIds = new int[riders];
+        for (int i = 0; i < riders; i++) {
+            riderIds[i] = portal.createRider(teamId, "Rider" + i, 1980 + i % 25);
+        }
+        raceIds = new int[races];
+        stageIds = new int[races * stagesPerRace];
+        for (int r = 0; r < races; r++) {
+            raceIds[r] = portal.createRace("Race" + r, null);
+            for (int s = 0; s < stagesPerRace; s++) {
+                int stageId = addStage(raceIds[r], "Stage" + s, LocalDateTime.of(2024, 7, 1 + s, 12, 0));
+                portal.concludeStagePreparation(stageId);
+                portal.registerRiderResultsInStage(stageId, riderIds, randomTimes(random));
+                stageIds[r * stagesPerRace + s] = stageId;
+            }
+        }
+    }
+
+    /**
+     * Adds a flat stage with the fixture's checkpoints, alternating sprints and
+     * climbs, still in preparation.
+     */
+    public int addStage(int raceId, String name, LocalDateTime startTime) throws Exception {
+        int stageId = portal.addStageToRace(raceId, name, null, 200, startTime, StageType.FLAT);
+        for (int c = 0; c < checkpointsPerStage; c++) {
+            double location = 20.0 + c * 150.0 / Math.max(1, checkpointsPerStage);
+            if (c % 2 == 0) {
+                portal.addIntermediateSprintToStage(stageId, location);
+            } else {
+                portal.addCategorizedClimbToStage(stageId, location, CheckpointType.C2, 6.0, 5.0);
+            }
+        }
+        return stageId;
+    }
+
+    /**
+     * @return One row of increasing times per rider, as accepted by
+     *         {@link CyclingPortalImpl#registerRiderResultsInStage(int, int[], LocalTime[][])}.
+     */
+    public LocalTime[][] randomTimes(Random random) {
+        int width = checkpointsPerStage + 2;
+        // 20 to 50 minutes between checkpoints, scaled down for many checkpoints so
+        // every rider finishes by 18:00, as times cannot go past midnight.
+        long maxGap = Math.min(TimeUnit.MINUTES.toNanos(50), TimeUnit.HOURS.toNanos(12) / (width - 1));
+        LocalTime[][] rows = new LocalTime[riders][width];
+        for (int i = 0; i < riders; i++) {
+            LocalTime time = LocalTime.of(6, 0);
+            rows[i][0] = time;
+            for (int c = 1; c < width; c++) {
+                time = time.plusNanos(maxGap * 2 / 5 + (long) (random.nextDouble() * (maxGap * 3 / 5)));
+                rows[i][c] = time;
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,63 @@
+package cycling;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the stage and race rankings. Stages are read in a random order;
+ * classification queries are measured both when cached and right after a
+ * result of the race changed.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankingBenchmark {
+
+    @Benchmark
+    public int[] ridersRankInStage(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getRidersRankInStage(LookupBenchmark.randomStage(fixture));
+    }
+
+    @Benchmark
+    public LocalTime[] rankedAdjustedElapsedTimesInStage(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getRankedAdjustedElapsedTimesInStage(LookupBenchmark.randomStage(fixture));
+    }
+
+    @Benchmark
+    public int[] ridersPointsInStage(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getRidersPointsInStage(LookupBenchmark.randomStage(fixture));
+    }
+
+    @Benchmark
+    public int[] generalClassificationCached(PortalFixture fixture) throws IDNotRecognisedException {
+        return fixture.portal.getRidersGeneralClassificationRank(fixture.raceIds[0]);
+    }
+
+    /**
+     * Deletes and re-registers one rider's result in the race's first stage
+     * before each query, so the classification has one stage to refresh.
+     */
+    @Benchmark
+    public int[] generalClassificationAfterChange(PortalFixture fixture) throws Exception {
+        int stageId = fixture.stageIds[0];
+        int riderId = LookupBenchmark.randomRider(fixture);
+        LocalTime[] times = fixture.portal.getRiderResultsInStage(stageId, riderId);
+        fixture.portal.deleteRiderResultsInStage(stageId, riderId);
+        fixture.portal.registerRiderResultsInStage(stageId, riderId, times);
+        return fixture.portal.getRidersGeneralClassificationRank(fixture.raceIds[0]);
+    }
+}
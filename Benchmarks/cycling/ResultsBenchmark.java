@@ -0,0 +1,78 @@
+package cycling;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures registering results, one rider at a time into a full stage and as a
+ * whole finish sheet into an empty one.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultsBenchmark {
+
+    /**
+     * A finish sheet and a fresh stage waiting for results, replaced before
+     * every batch registration.
+     */
+    @State(Scope.Thread)
+    public static class EmptyStage {
+        LocalTime[][] times;
+        int stageId;
+        private int stages;
+
+        @Setup(Level.Trial)
+        public void prepareTimes(PortalFixture fixture) {
+            times = fixture.randomTimes(new Random(7));
+        }
+
+        @Setup(Level.Invocation)
+        public void addStage(PortalFixture fixture) throws Exception {
+            if (stageId != 0) {
+                fixture.portal.removeStageById(stageId);
+            }
+            stageId = fixture.addStage(fixture.raceIds[0], "Empty" + stages++, LocalDateTime.of(2024, 8, 1, 12, 0));
+            fixture.portal.concludeStagePreparation(stageId);
+        }
+    }
+
+    /**
+     * Removes one rider's result from a full stage and registers it again, so
+     * the ranking keeps its size.
+     */
+    @Benchmark
+    public void registerOneRider(PortalFixture fixture) throws Exception {
+        int stageId = fixture.stageIds[ThreadLocalRandom.current().nextInt(fixture.stageIds.length)];
+        int riderId = fixture.riderIds[ThreadLocalRandom.current().nextInt(fixture.riderIds.length)];
+        LocalTime[] times = fixture.portal.getRiderResultsInStage(stageId, riderId);
+        fixture.portal.deleteRiderResultsInStage(stageId, riderId);
+        fixture.portal.registerRiderResultsInStage(stageId, riderId, times);
+    }
+
+    @Benchmark
+    public void registerFinishSheet(PortalFixture fixture, EmptyStage empty) throws Exception {
+        fixture.portal.registerRiderResultsInStage(empty.stageId, fixture.riderIds, empty.times);
+    }
+}
@@ -4,8 +4,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 import static org.junit.Assert.*;
 
 public class CyclingPortalImplTest {
@@ -36,7 +42,7 @@ public class CyclingPortalImplTest {
     }
 
     @Test
-    public void testCreateRaceWithInvalidName() {
+    public void testCreateRaceWithInvalidName() throws IllegalNameException {
         try {
             portal.createRace(" ", "A challenging race");
             fail("Expected InvalidNameException");
@@ -70,6 +76,40 @@ public class CyclingPortalImplTest {
         }
     }
 
+    @Test
+    public void testRemoveRaceByName() throws IllegalNameException, InvalidNameException, NameNotRecognisedException {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        assertEquals(raceId, portal.getRaceIdByName("TourDeJava"));
+        portal.removeRaceByName("TourDeJava");
+        assertEquals(0, portal.getRaceIds().length);
+        assertEquals(2, portal.createRace("TourDeJava", "Recreated race"));
+    }
+
+    @Test
+    public void testNullNamesNotRecognised() throws Exception {
+        portal.createRace("TourDeJava", "A challenging race");
+        portal.createTeam("TeamJava", "A strong team");
+        try {
+            portal.getRaceIdByName(null);
+            fail("Expected NameNotRecognisedException");
+        } catch (NameNotRecognisedException e) {
+            // expected
+        }
+        try {
+            portal.removeRaceByName(null);
+            fail("Expected NameNotRecognisedException");
+        } catch (NameNotRecognisedException e) {
+            // expected
+        }
+        try {
+            portal.getTeamIdByName(null);
+            fail("Expected NameNotRecognisedException");
+        } catch (NameNotRecognisedException e) {
+            // expected
+        }
+        assertEquals(1, portal.getRaceIds().length);
+    }
+
     @Test
     public void testRemoveRaceById() throws IllegalNameException, InvalidNameException, IDNotRecognisedException {
         int raceId = portal.createRace("Tour de Java", "A challenging race");
@@ -129,7 +169,528 @@ public class CyclingPortalImplTest {
     }
 
     @Test
-    public void testSaveAndLoadCyclingPortal() throws IOException, ClassNotFoundException {
+    public void testRegisterRiderResultsInBatch() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stageId = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        portal.concludeStagePreparation(stageId);
+        LocalTime start = LocalTime.of(10, 0);
+        try {
+            portal.registerRiderResultsInStage(stageId, new int[] { rider1, rider1 },
+                    new LocalTime[][] { { start, LocalTime.of(13, 0) }, { start, LocalTime.of(12, 0) } });
+            fail("Expected DuplicatedResultException");
+        } catch (DuplicatedResultException e) {
+            // expected
+        }
+        assertEquals(0, portal.getRidersRankInStage(stageId).length);
+
+        portal.registerRiderResultsInStage(stageId, new int[] { rider1, rider2 },
+                new LocalTime[][] { { start, LocalTime.of(13, 0) }, { start, LocalTime.of(12, 0) } });
+        assertArrayEquals(new int[] { rider2, rider1 }, portal.getRidersRankInStage(stageId));
+    }
+
+    @Test
+    public void testConcurrentRegistrationsAndQueries() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int[] riders = new int[200];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(teamId, "Rider " + i, 1990);
+        }
+        int[] stages = new int[4];
+        for (int s = 0; s < stages.length; s++) {
+            stages[s] = portal.addStageToRace(raceId, "Stage" + s, "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+            portal.concludeStagePreparation(stages[s]);
+        }
+        // Later riders finish earlier, two seconds apart, so every ranking is in descending ID order.
+        int[] expected = new int[riders.length];
+        for (int i = 0; i < riders.length; i++) {
+            expected[i] = riders[riders.length - 1 - i];
+        }
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < stages.length; s++) {
+            int stageId = stages[s];
+            long seed = s;
+            threads.add(new Thread(() -> {
+                try {
+                    List<Integer> order = new ArrayList<>();
+                    for (int i = 0; i < riders.length; i++) {
+                        order.add(i);
+                    }
+                    Collections.shuffle(order, new Random(seed));
+                    for (int i : order) {
+                        portal.registerRiderResultsInStage(stageId, riders[i], LocalTime.of(10, 0), LocalTime.of(14, 0).minusSeconds(2L * i));
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        for (int stageId : stages) {
+                            assertDescending(portal.getRidersRankInStage(stageId));
+                            portal.getRidersPointsInStage(stageId);
+                        }
+                        // Riders are missing stages until every result is in, so only the sizes are known.
+                        assertTrue(portal.getRidersGeneralClassificationRank(raceId).length <= riders.length);
+                        assertTrue(portal.getRidersPointClassificationRank(raceId).length <= riders.length);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads.subList(0, stages.length)) {
+            thread.join();
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), failures);
+        for (int stageId : stages) {
+            assertArrayEquals(expected, portal.getRidersRankInStage(stageId));
+        }
+        assertArrayEquals(expected, portal.getRidersGeneralClassificationRank(raceId));
+        assertArrayEquals(expected, portal.getRidersPointClassificationRank(raceId));
+    }
+
+    private static void assertDescending(int[] riderIds) {
+        for (int i = 1; i < riderIds.length; i++) {
+            assertTrue(riderIds[i - 1] > riderIds[i]);
+        }
+    }
+
+    @Test
+    public void testStageLeaderboard() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stageId = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int[] riders = new int[3];
+        portal.concludeStagePreparation(stageId);
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(teamId, "Rider " + i, 1990);
+            portal.registerRiderResultsInStage(stageId, riders[i], LocalTime.of(10, 0), LocalTime.of(13, i * 5));
+        }
+        StageLeaderboard page = portal.getStageLeaderboard(stageId, 2, 5);
+        assertEquals(2, page.getFirstPosition());
+        assertEquals(3, page.getTotalRiders());
+        assertArrayEquals(new int[] { riders[1], riders[2] }, page.getRiderIds());
+        assertArrayEquals(new Duration[] { Duration.ofMinutes(5), Duration.ofMinutes(10) }, page.getGapsToLeader());
+        assertEquals("Stage " + stageId + ", positions 2 to 3 of 3\n2. Rider " + riders[1] + " 03:05 +PT5M\n3. Rider "
+                + riders[2] + " 03:10 +PT10M", page.toString());
+
+        StageLeaderboard empty = portal.getStageLeaderboard(stageId, 4, 6);
+        assertEquals(0, empty.size());
+        assertEquals("Stage " + stageId + ", no riders from position 4 of 3", empty.toString());
+    }
+
+    @Test
+    public void testGeneralClassification() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stage1 = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int stage2 = portal.addStageToRace(raceId, "Stage2", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        portal.concludeStagePreparation(stage1);
+        portal.concludeStagePreparation(stage2);
+        portal.registerRiderResultsInStage(stage1, rider1, LocalTime.of(10, 0), LocalTime.of(13, 0));
+        portal.registerRiderResultsInStage(stage1, rider2, LocalTime.of(10, 0), LocalTime.of(13, 1));
+        portal.registerRiderResultsInStage(stage2, rider1, LocalTime.of(10, 0), LocalTime.of(14, 0));
+        portal.registerRiderResultsInStage(stage2, rider2, LocalTime.of(10, 0), LocalTime.of(13, 0));
+        assertArrayEquals(new int[] { rider2, rider1 }, portal.getRidersGeneralClassificationRank(raceId));
+        assertArrayEquals(new LocalTime[] { LocalTime.of(6, 1), LocalTime.of(7, 0) },
+                portal.getGeneralClassificationTimesInRace(raceId));
+
+        portal.deleteRiderResultsInStage(stage2, rider1);
+        assertArrayEquals(new int[] { rider1, rider2 }, portal.getRidersGeneralClassificationRank(raceId));
+    }
+
+    @Test
+    public void testGeneralClassificationOver24Hours() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        // Six stages of 5.5 hours for rider 1 and 5 hours for rider 2: totals of 33 and 30 hours.
+        for (int i = 1; i <= 6; i++) {
+            int stageId = portal.addStageToRace(raceId, "Stage" + i, "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+            portal.concludeStagePreparation(stageId);
+            portal.registerRiderResultsInStage(stageId, rider1, LocalTime.of(10, 0), LocalTime.of(15, 30));
+            portal.registerRiderResultsInStage(stageId, rider2, LocalTime.of(10, 0), LocalTime.of(15, 0));
+        }
+        assertArrayEquals(new int[] { rider2, rider1 }, portal.getRidersGeneralClassificationRank(raceId));
+        assertArrayEquals(new Duration[] { Duration.ofHours(30), Duration.ofHours(33) },
+                portal.getGeneralClassificationDurationsInRace(raceId));
+        assertArrayEquals(new LocalTime[] { LocalTime.MAX, LocalTime.MAX }, portal.getGeneralClassificationTimesInRace(raceId));
+    }
+
+    @Test
+    public void testBunchFinishAdjustedElapsedTimes() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int flat = portal.addStageToRace(raceId, "Flat", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int timeTrial = portal.addStageToRace(raceId, "Clock", "Time-trial", 30.0, LocalDateTime.now(), StageType.TT);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int[] riders = new int[4];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(teamId, "Rider " + i, 1990);
+        }
+        portal.concludeStagePreparation(flat);
+        portal.concludeStagePreparation(timeTrial);
+        // Each of the first three riders finishes less than a second after the one ahead.
+        LocalTime[] finishes = { LocalTime.of(14, 0), LocalTime.of(14, 0, 0, 900_000_000), LocalTime.of(14, 0, 1, 800_000_000),
+                LocalTime.of(14, 0, 3) };
+        for (int i = 0; i < riders.length; i++) {
+            portal.registerRiderResultsInStage(flat, riders[i], LocalTime.of(10, 0), finishes[i]);
+            portal.registerRiderResultsInStage(timeTrial, riders[i], LocalTime.of(10, 0), finishes[i]);
+        }
+        assertArrayEquals(new LocalTime[] { LocalTime.of(4, 0), LocalTime.of(4, 0), LocalTime.of(4, 0), LocalTime.of(4, 0, 3) },
+                portal.getRankedAdjustedElapsedTimesInStage(flat));
+        assertEquals(LocalTime.of(4, 0), portal.getRiderAdjustedElapsedTimeInStage(flat, riders[2]));
+        assertEquals(LocalTime.of(4, 0, 1, 800_000_000), portal.getRiderAdjustedElapsedTimeInStage(timeTrial, riders[2]));
+
+        portal.deleteRiderResultsInStage(flat, riders[1]);
+        assertEquals(LocalTime.of(4, 0, 1, 800_000_000), portal.getRiderAdjustedElapsedTimeInStage(flat, riders[2]));
+    }
+
+    @Test
+    public void testRemoveRiderRemovesResults() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stage1 = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int stage2 = portal.addStageToRace(raceId, "Stage2", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        portal.concludeStagePreparation(stage1);
+        portal.concludeStagePreparation(stage2);
+        for (int stageId : new int[] { stage1, stage2 }) {
+            portal.registerRiderResultsInStage(stageId, rider1, LocalTime.of(10, 0), LocalTime.of(13, 0));
+            portal.registerRiderResultsInStage(stageId, rider2, LocalTime.of(10, 0), LocalTime.of(13, 5));
+        }
+        portal.removeRider(rider1);
+        assertArrayEquals(new int[] { rider2 }, portal.getRidersRankInStage(stage1));
+        assertArrayEquals(new int[] { rider2 }, portal.getRidersRankInStage(stage2));
+        assertArrayEquals(new int[] { rider2 }, portal.getRidersGeneralClassificationRank(raceId));
+    }
+
+    @Test
+    public void testRemoveTeamRemovesRidersResults() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int flat = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int mountain = portal.addStageToRace(raceId, "Stage2", "Mountain stage", 150.0, LocalDateTime.now(), StageType.HIGH_MOUNTAIN);
+        int sprint = portal.addIntermediateSprintToStage(flat, 75.0);
+        int climb = portal.addCategorizedClimbToStage(mountain, 120.0, CheckpointType.C1, 6.0, 8.0);
+        portal.concludeStagePreparation(flat);
+        portal.concludeStagePreparation(mountain);
+        int kept = portal.createTeam("TeamJava", "A strong team");
+        int removed = portal.createTeam("TeamRuby", "Another team");
+        int rider = portal.createRider(kept, "John Doe", 1990);
+        int[] removedRiders = { portal.createRider(removed, "Jane Doe", 1991), portal.createRider(removed, "Jim Doe", 1992) };
+        // The removed team's riders win everything, so the kept rider moves up once they are gone.
+        for (int stageId : new int[] { flat, mountain }) {
+            portal.registerRiderResultsInStage(stageId, removedRiders[0], LocalTime.of(10, 0), LocalTime.of(11, 0), LocalTime.of(13, 0));
+            portal.registerRiderResultsInStage(stageId, removedRiders[1], LocalTime.of(10, 0), LocalTime.of(11, 1), LocalTime.of(13, 1));
+            portal.registerRiderResultsInStage(stageId, rider, LocalTime.of(10, 0), LocalTime.of(11, 2), LocalTime.of(13, 2));
+        }
+        assertArrayEquals(new int[] { removedRiders[0], removedRiders[1], rider }, portal.getRidersGeneralClassificationRank(raceId));
+
+        portal.removeTeam(removed);
+        assertArrayEquals(new int[] { kept }, portal.getTeams());
+        assertArrayEquals(new int[] { rider }, portal.getRidersRankInStage(flat));
+        assertArrayEquals(new int[] { rider }, portal.getRidersRankInStage(mountain));
+        assertArrayEquals(new int[] { rider }, portal.getRidersRankAtCheckpoint(flat, sprint));
+        assertArrayEquals(new int[] { rider }, portal.getRidersRankAtCheckpoint(mountain, climb));
+        assertArrayEquals(new int[] { 50 + 20 }, portal.getRidersPointsInStage(flat));
+        assertArrayEquals(new int[] { 10 }, portal.getRidersMountainPointsInStage(mountain));
+        assertArrayEquals(new int[] { rider }, portal.getRidersGeneralClassificationRank(raceId));
+        assertArrayEquals(new LocalTime[] { LocalTime.of(6, 4) }, portal.getGeneralClassificationTimesInRace(raceId));
+        assertArrayEquals(new int[] { rider }, portal.getRidersPointClassificationRank(raceId));
+        assertArrayEquals(new int[] { 50 + 20 + 20 }, portal.getRidersPointsInRace(raceId));
+        assertArrayEquals(new int[] { rider }, portal.getRidersMountainPointClassificationRank(raceId));
+        assertArrayEquals(new int[] { 10 }, portal.getRidersMountainPointsInRace(raceId));
+        try {
+            portal.getTeamRiders(removed);
+            fail("Expected IDNotRecognisedException");
+        } catch (IDNotRecognisedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStageCheckpointsOrderedByLocation() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stageId = portal.addStageToRace(raceId, "Stage1", "Mountain stage", 150.0, LocalDateTime.now(), StageType.HIGH_MOUNTAIN);
+        int climb = portal.addCategorizedClimbToStage(stageId, 120.0, CheckpointType.HC, 7.5, 12.0);
+        int sprint = portal.addIntermediateSprintToStage(stageId, 40.0);
+        int removed = portal.addCategorizedClimbToStage(stageId, 80.0, CheckpointType.C2, 5.0, 4.0);
+        assertArrayEquals(new int[] { sprint, removed, climb }, portal.getStageCheckpoints(stageId));
+        portal.removeCheckpoint(removed);
+        assertArrayEquals(new int[] { sprint, climb }, portal.getStageCheckpoints(stageId));
+
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        portal.concludeStagePreparation(stageId);
+        // Rider 2 is first at the sprint, rider 1 first at the climb and the finish.
+        portal.registerRiderResultsInStage(stageId, rider1, LocalTime.of(10, 0), LocalTime.of(11, 1), LocalTime.of(13, 0), LocalTime.of(14, 0));
+        portal.registerRiderResultsInStage(stageId, rider2, LocalTime.of(10, 0), LocalTime.of(11, 0), LocalTime.of(13, 5), LocalTime.of(14, 5));
+        assertArrayEquals(new int[] { 20, 15 }, portal.getRidersMountainPointsInStage(stageId));
+        assertArrayEquals(new int[] { 20 + 17, 17 + 20 }, portal.getRidersPointsInStage(stageId));
+    }
+
+    @Test
+    public void testCheckpointRankingsWithPassages() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stageId = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        int sprint = portal.addIntermediateSprintToStage(stageId, 50.0);
+        int climb = portal.addCategorizedClimbToStage(stageId, 100.0, CheckpointType.C2, 5.0, 4.0);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int finished = portal.createRider(teamId, "John Doe", 1990);
+        int onRoad = portal.createRider(teamId, "Jane Doe", 1991);
+        int dropped = portal.createRider(teamId, "Jim Doe", 1992);
+        portal.concludeStagePreparation(stageId);
+        LocalTime start = LocalTime.of(10, 0);
+        portal.registerRiderResultsInStage(stageId, finished, start, LocalTime.of(11, 5), LocalTime.of(12, 10), LocalTime.of(13, 0));
+        // Riders with passages only are ranked at the checkpoints they have passed, but not in the stage.
+        portal.registerRiderPassagesInStage(stageId, onRoad, start, LocalTime.of(11, 0));
+        portal.registerRiderPassagesInStage(stageId, dropped, start, LocalTime.of(11, 10), LocalTime.of(12, 30));
+        assertArrayEquals(new int[] { onRoad, finished, dropped }, portal.getRidersRankAtCheckpoint(stageId, sprint));
+        assertArrayEquals(new int[] { finished, dropped }, portal.getRidersRankAtCheckpoint(stageId, climb));
+        assertArrayEquals(new int[] { onRoad, finished }, portal.getRidersRankAtCheckpoint(stageId, sprint, 2));
+        assertArrayEquals(new LocalTime[] { LocalTime.of(1, 0), LocalTime.of(1, 5) }, portal.getRankedTimesAtCheckpoint(stageId, sprint, 2));
+        assertArrayEquals(new int[] { finished }, portal.getRidersRankInStage(stageId));
+        assertArrayEquals(new int[] { 20 + 50 }, portal.getRidersPointsInStage(stageId));
+
+        // A later passage replaces the earlier one, and the full result replaces both.
+        portal.registerRiderPassagesInStage(stageId, onRoad, start, LocalTime.of(11, 0), LocalTime.of(12, 0));
+        assertArrayEquals(new int[] { onRoad, finished, dropped }, portal.getRidersRankAtCheckpoint(stageId, climb));
+        portal.registerRiderResultsInStage(stageId, onRoad, start, LocalTime.of(11, 7), LocalTime.of(12, 20), LocalTime.of(13, 30));
+        assertArrayEquals(new int[] { finished, onRoad, dropped }, portal.getRidersRankAtCheckpoint(stageId, sprint));
+        assertArrayEquals(new int[] { finished, onRoad, dropped }, portal.getRidersRankAtCheckpoint(stageId, climb));
+        assertArrayEquals(new int[] { finished, onRoad }, portal.getRidersRankInStage(stageId));
+        try {
+            portal.registerRiderPassagesInStage(stageId, onRoad, start, LocalTime.of(11, 0));
+            fail("Expected DuplicatedResultException");
+        } catch (DuplicatedResultException e) {
+            // expected
+        }
+
+        // Deleting results also deletes passages, for riders with either.
+        portal.deleteRiderResultsInStage(stageId, dropped);
+        portal.deleteRiderResultsInStage(stageId, finished);
+        assertArrayEquals(new int[] { onRoad }, portal.getRidersRankAtCheckpoint(stageId, sprint));
+        assertArrayEquals(new int[] { onRoad }, portal.getRidersRankAtCheckpoint(stageId, climb));
+        portal.registerRiderPassagesInStage(stageId, dropped, start, LocalTime.of(11, 10));
+        portal.removeRider(dropped);
+        assertArrayEquals(new int[] { onRoad }, portal.getRidersRankAtCheckpoint(stageId, sprint));
+        try {
+            portal.getRidersRankAtCheckpoint(stageId, 999);
+            fail("Expected IDNotRecognisedException");
+        } catch (IDNotRecognisedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGeneralClassificationAfterStage() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stage2 = portal.addStageToRace(raceId, "Stage2", "Flat stage", 150.0, LocalDateTime.of(2024, 7, 2, 12, 0), StageType.FLAT);
+        int stage1 = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.of(2024, 7, 1, 12, 0), StageType.FLAT);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        portal.concludeStagePreparation(stage1);
+        portal.concludeStagePreparation(stage2);
+        portal.registerRiderResultsInStage(stage1, rider1, LocalTime.of(10, 0), LocalTime.of(13, 0));
+        portal.registerRiderResultsInStage(stage1, rider2, LocalTime.of(10, 0), LocalTime.of(13, 1));
+        portal.registerRiderResultsInStage(stage2, rider1, LocalTime.of(10, 0), LocalTime.of(13, 5));
+        portal.registerRiderResultsInStage(stage2, rider2, LocalTime.of(10, 0), LocalTime.of(13, 0));
+        assertArrayEquals(new int[] { stage1, stage2 }, portal.getRaceStagesInChronologicalOrder(raceId));
+        assertArrayEquals(new int[] { rider1, rider2 }, portal.getGeneralClassification(raceId, 0));
+        assertArrayEquals(new int[] { rider2, rider1 }, portal.getGeneralClassification(raceId, 1));
+        assertArrayEquals(new int[] { rider1, rider2 }, portal.getGeneralClassificationLeaders(raceId));
+
+        portal.deleteRiderResultsInStage(stage1, rider2);
+        portal.registerRiderResultsInStage(stage1, rider2, LocalTime.of(10, 0), LocalTime.of(13, 10));
+        assertArrayEquals(new int[] { rider1, rider2 }, portal.getGeneralClassification(raceId, 1));
+    }
+
+    @Test
+    public void testStagePointsByStageType() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int[] riders = new int[16];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(teamId, "Rider " + i, 1990);
+        }
+        StageType[] types = { StageType.FLAT, StageType.MEDIUM_MOUNTAIN, StageType.HIGH_MOUNTAIN, StageType.TT };
+        int[][] tables = { { 50, 30, 20, 18, 16, 14, 12, 10, 8, 7, 6, 5, 4, 3, 2, 0 },
+                { 30, 25, 22, 19, 17, 15, 13, 11, 9, 7, 6, 5, 4, 3, 2, 0 },
+                { 20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0 },
+                { 20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0 } };
+        for (int t = 0; t < types.length; t++) {
+            int stageId = portal.addStageToRace(raceId, "Stage" + t, "Stage", 150.0, LocalDateTime.now(), types[t]);
+            portal.concludeStagePreparation(stageId);
+            // Rider i finishes at 14:i, a minute apart, so the riders finish in ID order.
+            for (int i = 0; i < riders.length; i++) {
+                portal.registerRiderResultsInStage(stageId, riders[i], LocalTime.of(10, 0), LocalTime.of(14, i));
+            }
+            assertArrayEquals(riders, portal.getRidersRankInStage(stageId));
+            assertArrayEquals(tables[t], portal.getRidersPointsInStage(stageId));
+            assertArrayEquals(new int[riders.length], portal.getRidersMountainPointsInStage(stageId));
+        }
+    }
+
+    @Test
+    public void testStagePointsWithIntermediateSprint() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stageId = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        portal.addIntermediateSprintToStage(stageId, 75.0);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        int rider3 = portal.createRider(teamId, "Jim Doe", 1992);
+        portal.concludeStagePreparation(stageId);
+        // Rider 1 wins the sprint and the finish; riders 2 and 3 tie everywhere and are ordered by ID.
+        portal.registerRiderResultsInStage(stageId, rider3, LocalTime.of(10, 0), LocalTime.of(12, 0), LocalTime.of(14, 0));
+        portal.registerRiderResultsInStage(stageId, rider2, LocalTime.of(10, 0), LocalTime.of(12, 0), LocalTime.of(14, 0));
+        portal.registerRiderResultsInStage(stageId, rider1, LocalTime.of(10, 0), LocalTime.of(11, 59), LocalTime.of(13, 59));
+        assertArrayEquals(new int[] { rider1, rider2, rider3 }, portal.getRidersRankInStage(stageId));
+        assertArrayEquals(new int[] { 50 + 20, 30 + 17, 20 + 15 }, portal.getRidersPointsInStage(stageId));
+        assertArrayEquals(new int[] { 0, 0, 0 }, portal.getRidersMountainPointsInStage(stageId));
+        assertArrayEquals(new int[] { 70, 47, 35 }, portal.getRidersPointsInRace(raceId));
+
+        // Rider 3 now takes the sprint but still finishes last.
+        portal.deleteRiderResultsInStage(stageId, rider3);
+        portal.registerRiderResultsInStage(stageId, rider3, LocalTime.of(10, 0), LocalTime.of(11, 0), LocalTime.of(14, 0));
+        assertArrayEquals(new int[] { 50 + 17, 30 + 15, 20 + 20 }, portal.getRidersPointsInStage(stageId));
+    }
+
+    @Test
+    public void testMountainPointsByClimbCategory() throws Exception {
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int stageId = portal.addStageToRace(raceId, "Stage1", "Mountain stage", 150.0, LocalDateTime.now(), StageType.HIGH_MOUNTAIN);
+        CheckpointType[] climbs = { CheckpointType.C4, CheckpointType.C3, CheckpointType.C2, CheckpointType.C1, CheckpointType.HC };
+        for (int k = 0; k < climbs.length; k++) {
+            portal.addCategorizedClimbToStage(stageId, 20.0 * (k + 1), climbs[k], 6.0, 5.0);
+        }
+        portal.addIntermediateSprintToStage(stageId, 110.0);
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int[] riders = new int[9];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(teamId, "Rider " + i, 1990);
+        }
+        portal.concludeStagePreparation(stageId);
+        // Rider i is i-th over the first four climbs and at the finish, but the order is reversed on the HC climb.
+        for (int i = 0; i < riders.length; i++) {
+            LocalTime start = LocalTime.of(10, 0);
+            LocalTime[] times = new LocalTime[climbs.length + 3];
+            times[0] = start;
+            for (int k = 0; k < 4; k++) {
+                times[k + 1] = start.plusMinutes(20 * (k + 1) + i);
+            }
+            times[5] = LocalTime.of(11, 40).plusMinutes(riders.length - 1 - i);
+            times[6] = LocalTime.of(12, 0).plusMinutes(i);
+            times[7] = LocalTime.of(14, 0).plusMinutes(i);
+            portal.registerRiderResultsInStage(stageId, riders[i], times);
+        }
+        assertArrayEquals(riders, portal.getRidersRankInStage(stageId));
+        // C4 { 1 }, C3 { 2, 1 }, C2 { 5, 3, 2, 1 }, C1 { 10, 8, 6, 4, 2, 1 } by finishing order, plus HC
+        // { 20, 15, 12, 10, 8, 6, 4, 2 } in reverse; the sprint awards no mountain points.
+        assertArrayEquals(new int[] { 18, 12 + 2, 8 + 4, 5 + 6, 2 + 8, 1 + 10, 12, 15, 20 },
+                portal.getRidersMountainPointsInStage(stageId));
+        assertArrayEquals(new int[] { 20 + 20, 17 + 17, 15 + 15, 13 + 13, 11 + 11, 10 + 10, 9 + 9, 8 + 8, 7 + 7 },
+                portal.getRidersPointsInStage(stageId));
+        assertEquals(riders[8], portal.getRidersMountainPointClassificationRank(raceId)[0]);
+        assertEquals(riders[0], portal.getRidersMountainPointClassificationRank(raceId)[1]);
+    }
+
+    @Test
+    public void testRecomputeClassificationsMatchesIncrementalUpdates() throws Exception {
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int[] riders = new int[40];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(teamId, "Rider " + i, 1990);
+        }
+        Random random = new Random(7);
+        int[] raceIds = new int[3];
+        for (int r = 0; r < raceIds.length; r++) {
+            raceIds[r] = portal.createRace("Race" + r, null);
+            for (int s = 0; s < 8; s++) {
+                StageType type = StageType.values()[s % StageType.values().length];
+                int stageId = portal.addStageToRace(raceIds[r], "Stage" + s, null, 150.0, LocalDateTime.of(2024, 7, 1 + s, 12, 0), type);
+                int width = 2;
+                if (type != StageType.TT) {
+                    portal.addIntermediateSprintToStage(stageId, 50.0);
+                    portal.addCategorizedClimbToStage(stageId, 100.0, CheckpointType.values()[1 + s % 5], 6.0, 5.0);
+                    width = 4;
+                }
+                portal.concludeStagePreparation(stageId);
+                for (int rider : riders) {
+                    LocalTime[] times = new LocalTime[width];
+                    times[0] = LocalTime.of(10, 0);
+                    for (int k = 1; k < width; k++) {
+                        times[k] = times[k - 1].plusSeconds(1800 + random.nextInt(600));
+                    }
+                    portal.registerRiderResultsInStage(stageId, rider, times);
+                }
+                // Query as results arrive, so the classifications are maintained incrementally.
+                portal.getRidersGeneralClassificationRank(raceIds[r]);
+                portal.deleteRiderResultsInStage(stageId, riders[s]);
+            }
+        }
+        portal.removeRider(riders[0]);
+
+        int[][][] incremental = classifications(raceIds);
+        portal.recomputeClassifications(1);
+        assertClassificationsEqual(incremental, classifications(raceIds));
+        portal.recomputeClassifications(4);
+        assertClassificationsEqual(incremental, classifications(raceIds));
+        try {
+            portal.recomputeClassifications(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private int[][][] classifications(int[] raceIds) throws Exception {
+        int[][][] classifications = new int[raceIds.length][][];
+        for (int r = 0; r < raceIds.length; r++) {
+            int raceId = raceIds[r];
+            Duration[] durations = portal.getGeneralClassificationDurationsInRace(raceId);
+            int[] totals = new int[durations.length];
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = (int) durations[i].getSeconds();
+            }
+            classifications[r] = new int[][] { portal.getRidersGeneralClassificationRank(raceId), totals,
+                    portal.getRidersPointClassificationRank(raceId), portal.getRidersPointsInRace(raceId),
+                    portal.getRidersMountainPointClassificationRank(raceId), portal.getRidersMountainPointsInRace(raceId) };
+        }
+        return classifications;
+    }
+
+    private static void assertClassificationsEqual(int[][][] expected, int[][][] actual) {
+        for (int r = 0; r < expected.length; r++) {
+            for (int c = 0; c < expected[r].length; c++) {
+                assertArrayEquals("Race " + r + ", classification " + c, expected[r][c], actual[r][c]);
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndLoadCyclingPortal() throws IOException, ClassNotFoundException, IllegalNameException, InvalidNameException {
         int raceId = portal.createRace("Tour de Java", "A challenging race");
         portal.saveCyclingPortal("testPortal.ser");
 
@@ -0,0 +1,115 @@
+package cycling;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Map;
+import static org.junit.Assert.*;
+
+public class InstrumentedCyclingPortalTest {
+    private InstrumentedCyclingPortal portal;
+
+    @Before
+    public void setUp() {
+        portal = new InstrumentedCyclingPortal(new CyclingPortalImpl());
+    }
+
+    @Test
+    public void testCountsCallsAndErrors() throws Exception {
+        portal.createRace("TourDeJava", "A challenging race");
+        portal.createRace("TourDeRuby", "Another race");
+        try {
+            portal.createRace("TourDeJava", "A duplicate");
+            fail("Expected IllegalNameException");
+        } catch (IllegalNameException e) {
+            // expected
+        }
+        try {
+            portal.createRace(" ", "An invalid name");
+            fail("Expected InvalidNameException");
+        } catch (InvalidNameException e) {
+            // expected
+        }
+        try {
+            portal.viewRaceDetails(99);
+            fail("Expected IDNotRecognisedException");
+        } catch (IDNotRecognisedException e) {
+            // expected
+        }
+        assertEquals(2, portal.getRaceIds().length);
+
+        Map<String, OperationStats> stats = portal.getStats();
+        OperationStats createRace = stats.get("createRace");
+        assertEquals("createRace", createRace.getOperation());
+        assertEquals(4, createRace.getCalls());
+        assertEquals(2, createRace.getErrorCount());
+        assertEquals(Long.valueOf(1), createRace.getErrors().get("IllegalNameException"));
+        assertEquals(Long.valueOf(1), createRace.getErrors().get("InvalidNameException"));
+        assertEquals(1, stats.get("viewRaceDetails").getCalls());
+        assertEquals(Collections.singletonMap("IDNotRecognisedException", 1L), stats.get("viewRaceDetails").getErrors());
+        assertEquals(1, stats.get("getRaceIds").getCalls());
+        assertEquals(0, stats.get("getRaceIds").getErrorCount());
+        assertEquals(0, stats.get("removeRaceById").getCalls());
+        assertTrue(createRace.getTotalNanos() >= createRace.getMaxNanos());
+        assertTrue(createRace.getPercentileNanos(50) <= createRace.getPercentileNanos(100));
+        assertEquals(createRace.getMaxNanos(), createRace.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testStatsAndReset() throws Exception {
+        portal.createRace("TourDeJava", "A challenging race");
+        portal.getRaceIds();
+        assertEquals(1, portal.getStatsAndReset().get("createRace").getCalls());
+        assertEquals(0, portal.getStats().get("createRace").getCalls());
+        assertEquals(0, portal.getStats().get("createRace").getTotalNanos());
+
+        portal.getRaceIds();
+        assertEquals(1, portal.getStats().get("getRaceIds").getCalls());
+        portal.reset();
+        OperationStats getRaceIds = portal.getStats().get("getRaceIds");
+        assertEquals(0, getRaceIds.getCalls());
+        assertEquals(0, getRaceIds.getMaxNanos());
+        assertEquals(0, getRaceIds.getPercentileNanos(99));
+        assertEquals(0.0, getRaceIds.getMeanNanos(), 0.0);
+    }
+
+    @Test
+    public void testCountsCallsFromManyThreads() throws Exception {
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    portal.getRaceIds();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8000, portal.getStats().get("getRaceIds").getCalls());
+    }
+
+    @Test
+    public void testSerialisesWrappedPortal() throws Exception {
+        InstrumentedCyclingPortal wrapper = new InstrumentedCyclingPortal(new BadCyclingPortalImpl());
+        wrapper.getRaceIds();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(wrapper);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertTrue(in.readObject() instanceof BadCyclingPortalImpl);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNullPortal() {
+        new InstrumentedCyclingPortal(null);
+    }
+}
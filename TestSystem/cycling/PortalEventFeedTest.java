@@ -0,0 +1,207 @@
+package cycling;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class PortalEventFeedTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Collects events as "sequence TYPE raceId stageId riderId" and lost events
+     * as "lost count".
+     */
+    private static class Recorder implements PortalEventHandler {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onEvent(long sequence, PortalEventType type, int raceId, int stageId, int riderId) {
+            events.add(sequence + " " + type + " " + raceId + " " + stageId + " " + riderId);
+        }
+
+        @Override
+        public void onEventsLost(long count) {
+            events.add("lost " + count);
+        }
+    }
+
+    private CyclingPortalImpl portal;
+    private int raceId;
+    private int stageId;
+    private int teamId;
+
+    @Before
+    public void setUp() throws Exception {
+        portal = new CyclingPortalImpl();
+        raceId = portal.createRace("TourDeJava", "A challenging race");
+        stageId = portal.addStageToRace(raceId, "Stage1", "Mountain stage", 150.0, LocalDateTime.now(), StageType.HIGH_MOUNTAIN);
+        portal.addCategorizedClimbToStage(stageId, 100.0, CheckpointType.C1, 6.0, 8.0);
+        teamId = portal.createTeam("TeamJava", "A strong team");
+    }
+
+    @Test
+    public void testEventsArriveInOrder() {
+        PortalEventFeed feed = new PortalEventFeed(8);
+        PortalEventFeed.Subscription subscription = feed.subscribe();
+        for (int i = 0; i < 5; i++) {
+            feed.publish(PortalEventType.values()[i], i, 10 + i, 20 + i);
+        }
+        Recorder recorder = new Recorder();
+        assertEquals(5, subscription.getBacklog());
+        assertEquals(3, subscription.poll(recorder, 3));
+        assertEquals(2, subscription.poll(recorder, 10));
+        assertEquals(0, subscription.poll(recorder, 10));
+        assertEquals(Arrays.asList("0 RESULT_REGISTERED 0 10 20", "1 RESULT_DELETED 1 11 21", "2 STAGE_CONCLUDED 2 12 22",
+                "3 RIDER_REMOVED 3 13 23", "4 CLASSIFICATION_CHANGED 4 14 24"), recorder.events);
+        assertEquals(4, feed.getPublishedSequence());
+        assertEquals(5, subscription.getNextSequence());
+    }
+
+    @Test
+    public void testSubscriptionsStartAtNextEvent() {
+        PortalEventFeed feed = new PortalEventFeed(5);
+        assertEquals(8, feed.getCapacity());
+        feed.publish(PortalEventType.RESULT_REGISTERED, 1, 1, 1);
+        PortalEventFeed.Subscription late = feed.subscribe();
+        feed.publish(PortalEventType.RESULT_DELETED, 1, 1, 1);
+        Recorder recorder = new Recorder();
+        late.poll(recorder, 10);
+        assertEquals(Arrays.asList("1 RESULT_DELETED 1 1 1"), recorder.events);
+    }
+
+    @Test
+    public void testLostEventsAreCountedExactly() {
+        PortalEventFeed feed = new PortalEventFeed(4);
+        PortalEventFeed.Subscription subscription = feed.subscribe();
+        for (int i = 0; i < 8; i++) {
+            feed.publish(PortalEventType.RESULT_REGISTERED, 0, 0, i);
+        }
+        Recorder recorder = new Recorder();
+        assertEquals(4, subscription.poll(recorder, 10));
+        assertEquals(Arrays.asList("lost 4", "4 RESULT_REGISTERED 0 0 4", "5 RESULT_REGISTERED 0 0 5", "6 RESULT_REGISTERED 0 0 6",
+                "7 RESULT_REGISTERED 0 0 7"), recorder.events);
+
+        // Falling behind again part-way through the ring.
+        recorder.events.clear();
+        for (int i = 8; i < 14; i++) {
+            feed.publish(PortalEventType.RESULT_REGISTERED, 0, 0, i);
+        }
+        assertEquals(4, subscription.poll(recorder, 10));
+        assertEquals("lost 2", recorder.events.get(0));
+        assertEquals("10 RESULT_REGISTERED 0 0 10", recorder.events.get(1));
+    }
+
+    @Test
+    public void testConcurrentReaderNeverSeesTornEvents() throws Exception {
+        PortalEventFeed feed = new PortalEventFeed(16);
+        PortalEventFeed.Subscription subscription = feed.subscribe();
+        int total = 200_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < total; i++) {
+                feed.publish(PortalEventType.values()[i % 5], i, i * 3, i * 7);
+            }
+        });
+        long[] counts = new long[2];
+        long[] expected = { 0 };
+        String[] failure = { null };
+        PortalEventHandler handler = new PortalEventHandler() {
+            @Override
+            public void onEvent(long sequence, PortalEventType type, int raceId, int stageId, int riderId) {
+                int i = (int) sequence;
+                if (sequence != expected[0] || type != PortalEventType.values()[i % 5] || raceId != i || stageId != i * 3
+                        || riderId != i * 7) {
+                    failure[0] = "Torn or out of order event " + sequence + " after " + expected[0];
+                }
+                expected[0] = sequence + 1;
+                counts[0]++;
+            }
+
+            @Override
+            public void onEventsLost(long count) {
+                expected[0] += count;
+                counts[1] += count;
+            }
+        };
+        writer.start();
+        while (writer.isAlive() || subscription.getBacklog() > 0) {
+            subscription.poll(handler, 64);
+        }
+        writer.join();
+        assertNull(failure[0]);
+        assertEquals(total, counts[0] + counts[1]);
+    }
+
+    @Test
+    public void testPortalPublishesChanges() throws Exception {
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        PortalEventFeed.Subscription subscription = portal.enableEventFeed(64).subscribe();
+        portal.concludeStagePreparation(stageId);
+        portal.registerRiderResultsInStage(stageId, rider1, LocalTime.of(10, 0), LocalTime.of(12, 0), LocalTime.of(14, 0));
+        portal.deleteRiderResultsInStage(stageId, rider1);
+        portal.registerRiderResultsInStage(stageId, rider2, LocalTime.of(10, 0), LocalTime.of(12, 0), LocalTime.of(14, 0));
+        portal.removeRider(rider2);
+        Recorder recorder = new Recorder();
+        subscription.poll(recorder, 64);
+        assertEquals(Arrays.asList("0 STAGE_CONCLUDED " + raceId + " " + stageId + " 0",
+                "1 RESULT_REGISTERED " + raceId + " " + stageId + " " + rider1,
+                "2 CLASSIFICATION_CHANGED " + raceId + " " + stageId + " 0",
+                "3 RESULT_DELETED " + raceId + " " + stageId + " " + rider1,
+                "4 CLASSIFICATION_CHANGED " + raceId + " " + stageId + " 0",
+                "5 RESULT_REGISTERED " + raceId + " " + stageId + " " + rider2,
+                "6 CLASSIFICATION_CHANGED " + raceId + " " + stageId + " 0",
+                "7 RESULT_DELETED " + raceId + " " + stageId + " " + rider2,
+                "8 CLASSIFICATION_CHANGED " + raceId + " " + stageId + " 0",
+                "9 RIDER_REMOVED 0 0 " + rider2), recorder.events);
+    }
+
+    @Test
+    public void testRemovingNothingPublishesNothing() throws Exception {
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        portal.concludeStagePreparation(stageId);
+        PortalEventFeed.Subscription subscription = portal.enableEventFeed(64).subscribe();
+        // A rider without a result, and a rider with passages only.
+        portal.deleteRiderResultsInStage(stageId, rider1);
+        portal.registerRiderPassagesInStage(stageId, rider2, LocalTime.of(10, 0), LocalTime.of(12, 0));
+        portal.deleteRiderResultsInStage(stageId, rider2);
+        assertEquals(0, portal.getRidersRankAtCheckpoint(stageId, portal.getStageCheckpoints(stageId)[0]).length);
+        portal.registerRiderPassagesInStage(stageId, rider2, LocalTime.of(10, 0), LocalTime.of(12, 0));
+        portal.removeRider(rider2);
+        Recorder recorder = new Recorder();
+        subscription.poll(recorder, 64);
+        assertEquals(Arrays.asList("0 RIDER_REMOVED 0 0 " + rider2), recorder.events);
+    }
+
+    @Test
+    public void testReplayingJournalPublishesNothing() throws Exception {
+        String snapshot = folder.getRoot().toPath().resolve("portal.snapshot").toString();
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        portal.enableJournal(snapshot);
+        portal.concludeStagePreparation(stageId);
+        portal.registerRiderResultsInStage(stageId, rider1, LocalTime.of(10, 0), LocalTime.of(12, 0), LocalTime.of(14, 0));
+        portal.disableJournal();
+
+        CyclingPortalImpl loaded = new CyclingPortalImpl();
+        PortalEventFeed.Subscription subscription = loaded.enableEventFeed(64).subscribe();
+        loaded.loadCyclingPortal(snapshot);
+        assertArrayEquals(new int[] { rider1 }, loaded.getRidersRankInStage(stageId));
+        assertEquals(0, subscription.getBacklog());
+
+        // Changes after loading are published as usual.
+        loaded.deleteRiderResultsInStage(stageId, rider1);
+        Recorder recorder = new Recorder();
+        subscription.poll(recorder, 64);
+        assertEquals(Arrays.asList("0 RESULT_DELETED " + raceId + " " + stageId + " " + rider1,
+                "1 CLASSIFICATION_CHANGED " + raceId + " " + stageId + " 0"), recorder.events);
+    }
+}
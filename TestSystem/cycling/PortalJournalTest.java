@@ -0,0 +1,229 @@
+package cycling;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class PortalJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private interface Operation {
+        void apply(CyclingPortalImpl portal) throws Exception;
+    }
+
+    private static final LocalTime START = LocalTime.of(10, 0);
+
+    // One operation of every kind the journal records. IDs are assigned in order, so they are known up front.
+    private static final Operation[] OPERATIONS = {
+            p -> p.createRace("TourDeJava", "A challenging race"),
+            p -> p.addStageToRace(1, "Flat", "Flat stage", 150.0, LocalDateTime.of(2024, 7, 1, 12, 0), StageType.FLAT),
+            p -> p.addStageToRace(1, "Mountain", null, 180.0, LocalDateTime.of(2024, 7, 2, 11, 0), StageType.HIGH_MOUNTAIN),
+            p -> p.addIntermediateSprintToStage(1, 75.0),
+            p -> p.addCategorizedClimbToStage(2, 120.0, CheckpointType.HC, 7.5, 12.0),
+            p -> p.addCategorizedClimbToStage(2, 60.0, CheckpointType.C3, 4.0, 3.0),
+            p -> p.removeCheckpoint(3),
+            p -> p.concludeStagePreparation(1),
+            p -> p.concludeStagePreparation(2),
+            p -> p.createTeam("TeamJava", "A strong team"),
+            p -> p.createRider(1, "John Doe", 1990),
+            p -> p.createRider(1, "Jane Doe", 1991),
+            p -> p.createRider(1, "Jim Doe", 1992),
+            p -> p.createRider(1, "Joe Doe", 1993),
+            p -> p.registerRiderResultsInStage(1, 1, START, LocalTime.of(12, 0), LocalTime.of(14, 0, 0, 250_000_000)),
+            p -> p.registerRiderResultsInStage(1, new int[] { 2, 3 }, new LocalTime[][] {
+                    { START, LocalTime.of(11, 59), LocalTime.of(14, 1) }, { START, LocalTime.of(12, 1), LocalTime.of(13, 59) } }),
+            p -> p.registerRiderResultsInStage(2, 1, START, LocalTime.of(13, 0), LocalTime.of(15, 0)),
+            p -> p.registerRiderResultsInStage(2, 4, START, LocalTime.of(13, 5), LocalTime.of(15, 2)),
+            p -> p.deleteRiderResultsInStage(1, 2),
+            p -> p.removeRider(4),
+            p -> p.addStageToRace(1, "Clock", "Time-trial", 30.0, null, StageType.TT),
+            p -> p.removeStageById(3),
+            p -> p.createRace("Other", null),
+            p -> p.removeRaceById(2),
+            p -> p.createTeam("TeamRuby", null),
+            p -> p.removeTeam(2) };
+
+    private String snapshot;
+    private Path journal;
+
+    @Before
+    public void setUp() {
+        Path path = folder.getRoot().toPath().resolve("portal.snapshot");
+        snapshot = path.toString();
+        journal = path.resolveSibling("portal.snapshot.journal");
+    }
+
+    private static CyclingPortalImpl portalAfter(int operations) throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        for (int i = 0; i < operations; i++) {
+            OPERATIONS[i].apply(portal);
+        }
+        return portal;
+    }
+
+    private CyclingPortalImpl load() throws Exception {
+        CyclingPortalImpl loaded = new CyclingPortalImpl();
+        loaded.loadCyclingPortal(snapshot);
+        return loaded;
+    }
+
+    /**
+     * Applies every operation to a journalled portal that is never saved again,
+     * as if the process crashed.
+     *
+     * @return The length of the journal after each operation returned.
+     */
+    private long[] crashAfterAllOperations() throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        portal.enableJournal(snapshot);
+        long[] lengths = new long[OPERATIONS.length + 1];
+        lengths[0] = Files.size(journal);
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            OPERATIONS[i].apply(portal);
+            lengths[i + 1] = Files.size(journal);
+        }
+        return lengths;
+    }
+
+    @Test
+    public void testReplayRecoversEveryChange() throws Exception {
+        long[] lengths = crashAfterAllOperations();
+        for (int i = 1; i < lengths.length; i++) {
+            assertTrue("Operation " + i + " was not journalled before returning", lengths[i] > lengths[i - 1]);
+        }
+        PortalSnapshotTest.assertSamePortal(portalAfter(OPERATIONS.length), load());
+    }
+
+    @Test
+    public void testReplayStopsAtTornTail() throws Exception {
+        long[] lengths = crashAfterAllOperations();
+        byte[] bytes = Files.readAllBytes(journal);
+        int complete = 0;
+        for (int length = 0; length <= bytes.length; length++) {
+            while (complete < OPERATIONS.length && lengths[complete + 1] <= length) {
+                complete++;
+            }
+            Files.write(journal, Arrays.copyOf(bytes, length));
+            PortalSnapshotTest.assertSamePortal(portalAfter(complete), load());
+        }
+    }
+
+    @Test
+    public void testReplayStopsAtCorruptRecord() throws Exception {
+        long[] lengths = crashAfterAllOperations();
+        byte[] bytes = Files.readAllBytes(journal);
+        int corrupted = OPERATIONS.length / 2;
+        // The last byte of a record is always part of its checksummed payload.
+        bytes[(int) lengths[corrupted + 1] - 1] ^= 0x01;
+        Files.write(journal, bytes);
+        PortalSnapshotTest.assertSamePortal(portalAfter(corrupted), load());
+    }
+
+    @Test
+    public void testReplaySkipsChangesInSnapshot() throws Exception {
+        int saved = OPERATIONS.length / 2;
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        portal.enableJournal(snapshot);
+        for (int i = 0; i < saved; i++) {
+            OPERATIONS[i].apply(portal);
+        }
+        byte[] before = Files.readAllBytes(journal);
+        portal.saveCyclingPortal(snapshot);
+        for (int i = saved; i < OPERATIONS.length; i++) {
+            OPERATIONS[i].apply(portal);
+        }
+        portal.disableJournal();
+        // A crash between writing the snapshot and emptying the journal leaves records the snapshot already holds.
+        byte[] after = Files.readAllBytes(journal);
+        byte[] combined = Arrays.copyOf(before, before.length + after.length - 5);
+        System.arraycopy(after, 5, combined, before.length, after.length - 5);
+        Files.write(journal, combined);
+        PortalSnapshotTest.assertSamePortal(portalAfter(OPERATIONS.length), load());
+    }
+
+    @Test
+    public void testReplayRejectsMissingChanges() throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        portal.enableJournal(snapshot);
+        byte[] emptySnapshot = Files.readAllBytes(Paths.get(snapshot));
+        for (Operation operation : OPERATIONS) {
+            operation.apply(portal);
+            if (operation == OPERATIONS[3]) {
+                portal.saveCyclingPortal(snapshot);
+            }
+        }
+        portal.disableJournal();
+        Files.write(Paths.get(snapshot), emptySnapshot);
+        try {
+            load();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Journal is missing change 1.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConcurrentChangesShareSyncs() throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        int teamId = portal.createTeam("TeamJava", "A strong team");
+        int[] riders = new int[100];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(teamId, "Rider " + i, 1990);
+        }
+        int[] stages = new int[8];
+        for (int s = 0; s < stages.length; s++) {
+            stages[s] = portal.addStageToRace(raceId, "Stage" + s, null, 150.0, LocalDateTime.of(2024, 7, 1 + s, 12, 0), StageType.FLAT);
+            portal.concludeStagePreparation(stages[s]);
+        }
+        portal.enableJournal(snapshot);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int stageId : stages) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < riders.length; i++) {
+                        portal.registerRiderResultsInStage(stageId, riders[i], START, LocalTime.of(14, 0).plusSeconds((i * 7L + stageId) % 100));
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), failures);
+        PortalSnapshotTest.assertSamePortal(portal, load());
+    }
+
+    @Test
+    public void testBackgroundSyncRecoversSyncedChanges() throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        portal.enableJournal(snapshot, 10_000);
+        for (Operation operation : OPERATIONS) {
+            operation.apply(portal);
+        }
+        portal.syncJournal();
+        CyclingPortalImpl loaded = load();
+        portal.disableJournal();
+        PortalSnapshotTest.assertSamePortal(portalAfter(OPERATIONS.length), loaded);
+    }
+}
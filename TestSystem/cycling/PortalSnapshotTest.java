@@ -0,0 +1,235 @@
+package cycling;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+
+public class PortalSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CyclingPortalImpl portal;
+    private String file;
+    private int flat;
+    private int mountain;
+    private int[] riders;
+
+    @Before
+    public void setUp() throws Exception {
+        portal = new CyclingPortalImpl();
+        file = folder.getRoot().toPath().resolve("portal.snapshot").toString();
+
+        int removedRace = portal.createRace("Removed", "Removed before saving");
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        portal.createRace("EmptyRace", null);
+        portal.removeRaceById(removedRace);
+        flat = portal.addStageToRace(raceId, "Flat", "Flat stage", 150.5, LocalDateTime.of(2024, 7, 1, 12, 0), StageType.FLAT);
+        mountain = portal.addStageToRace(raceId, "Mountain", null, 180.0, LocalDateTime.of(2024, 7, 2, 11, 30), StageType.HIGH_MOUNTAIN);
+        portal.addStageToRace(raceId, "Clock", "Time-trial", 30.0, LocalDateTime.of(2024, 7, 3, 9, 0), StageType.TT);
+        portal.addIntermediateSprintToStage(flat, 75.0);
+        portal.addCategorizedClimbToStage(mountain, 160.0, CheckpointType.HC, 7.5, 12.0);
+        portal.addCategorizedClimbToStage(mountain, 90.0, CheckpointType.C2, 5.0, 4.0);
+        portal.concludeStagePreparation(flat);
+        portal.concludeStagePreparation(mountain);
+
+        int team1 = portal.createTeam("TeamJava", "A strong team");
+        portal.createTeam("TeamRuby", null);
+        int removedRider = portal.createRider(team1, "Removed", 1980);
+        riders = new int[5];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = portal.createRider(team1, "Rider " + i, 1990 + i);
+        }
+        portal.removeRider(removedRider);
+        for (int i = 0; i < riders.length; i++) {
+            LocalTime start = LocalTime.of(10, 0);
+            portal.registerRiderResultsInStage(flat, riders[i], start, LocalTime.of(12, i, 30), LocalTime.of(14, 0, 0, i * 200_000_000));
+            portal.registerRiderResultsInStage(mountain, riders[riders.length - 1 - i], start, LocalTime.of(12, 0).plusSeconds(i),
+                    LocalTime.of(13, 0).plusMinutes(i), LocalTime.of(15, 0).plusMinutes(i));
+        }
+    }
+
+    /**
+     * Compares everything the public API exposes about two portals, including
+     * the IDs they will hand out next.
+     */
+    static void assertSamePortal(CyclingPortal expected, CyclingPortal actual) throws Exception {
+        assertArrayEquals(expected.getRaceIds(), actual.getRaceIds());
+        for (int raceId : expected.getRaceIds()) {
+            assertEquals(expected.viewRaceDetails(raceId), actual.viewRaceDetails(raceId));
+            assertArrayEquals(expected.getRaceStages(raceId), actual.getRaceStages(raceId));
+            for (int stageId : expected.getRaceStages(raceId)) {
+                assertEquals(expected.getStageLength(stageId), actual.getStageLength(stageId), 0.0);
+                assertArrayEquals(expected.getStageCheckpoints(stageId), actual.getStageCheckpoints(stageId));
+                int[] ranks = expected.getRidersRankInStage(stageId);
+                assertArrayEquals(ranks, actual.getRidersRankInStage(stageId));
+                for (int riderId : ranks) {
+                    assertArrayEquals(expected.getRiderResultsInStage(stageId, riderId), actual.getRiderResultsInStage(stageId, riderId));
+                }
+                assertArrayEquals(expected.getRankedAdjustedElapsedTimesInStage(stageId), actual.getRankedAdjustedElapsedTimesInStage(stageId));
+                assertArrayEquals(expected.getRidersPointsInStage(stageId), actual.getRidersPointsInStage(stageId));
+                assertArrayEquals(expected.getRidersMountainPointsInStage(stageId), actual.getRidersMountainPointsInStage(stageId));
+            }
+            assertArrayEquals(expected.getRidersGeneralClassificationRank(raceId), actual.getRidersGeneralClassificationRank(raceId));
+        }
+        assertArrayEquals(expected.getTeams(), actual.getTeams());
+        for (int teamId : expected.getTeams()) {
+            assertArrayEquals(expected.getTeamRiders(teamId), actual.getTeamRiders(teamId));
+        }
+        int raceId = expected.createRace("NextRace", null);
+        assertEquals(raceId, actual.createRace("NextRace", null));
+        int teamId = expected.createTeam("NextTeam", null);
+        assertEquals(teamId, actual.createTeam("NextTeam", null));
+        assertEquals(expected.createRider(teamId, "Next", 2000), actual.createRider(teamId, "Next", 2000));
+        int expectedStage = expected.addStageToRace(raceId, "NextStage", null, 100.0, LocalDateTime.of(2024, 7, 9, 12, 0), StageType.FLAT);
+        assertEquals(expectedStage, actual.addStageToRace(raceId, "NextStage", null, 100.0, LocalDateTime.of(2024, 7, 9, 12, 0), StageType.FLAT));
+        assertEquals(expected.addIntermediateSprintToStage(expectedStage, 50.0), actual.addIntermediateSprintToStage(expectedStage, 50.0));
+    }
+
+    @Test
+    public void testSaveAndLoadRoundTrip() throws Exception {
+        portal.saveCyclingPortal(file);
+        CyclingPortalImpl loaded = new CyclingPortalImpl();
+        loaded.loadCyclingPortal(file);
+        assertSamePortal(portal, loaded);
+    }
+
+    @Test
+    public void testSaveAndLoadStageWithoutType() throws Exception {
+        int untyped = portal.addStageToRace(portal.getRaceIds()[0], "Untyped", null, 90.0, null, null);
+        portal.saveCyclingPortal(file);
+        CyclingPortalImpl opened = new CyclingPortalImpl();
+        opened.openCyclingPortal(file);
+        assertEquals(90.0, opened.getStageLength(untyped), 0.0);
+        assertEquals(portal.viewRaceDetails(portal.getRaceIds()[0]), opened.viewRaceDetails(portal.getRaceIds()[0]));
+        CyclingPortalImpl loaded = new CyclingPortalImpl();
+        loaded.loadCyclingPortal(file);
+        assertSamePortal(portal, loaded);
+    }
+
+    @Test
+    public void testLoadKeepsStageStates() throws Exception {
+        portal.saveCyclingPortal(file);
+        CyclingPortalImpl loaded = new CyclingPortalImpl();
+        loaded.loadCyclingPortal(file);
+        int raceId = loaded.getRaceIds()[0];
+        int flat = loaded.getStageIdByName(raceId, "Flat");
+        int clock = loaded.getStageIdByName(raceId, "Clock");
+        try {
+            loaded.addIntermediateSprintToStage(flat, 20.0);
+            fail("Expected InvalidStageStateException");
+        } catch (InvalidStageStateException e) {
+            // expected
+        }
+        loaded.concludeStagePreparation(clock);
+    }
+
+    @Test
+    public void testLoadRejectsTruncatedSnapshot() throws Exception {
+        portal.saveCyclingPortal(file);
+        Path path = folder.getRoot().toPath().resolve("portal.snapshot");
+        byte[] bytes = Files.readAllBytes(path);
+        CyclingPortalImpl loaded = new CyclingPortalImpl();
+        loaded.createRace("Untouched", null);
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(path, Arrays.copyOf(bytes, length));
+            try {
+                loaded.loadCyclingPortal(file);
+                fail("Expected IOException for a snapshot truncated to " + length + " bytes");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        // A failed load leaves the portal as it was.
+        assertEquals(1, loaded.getRaceIds().length);
+        assertEquals(1, loaded.getRaceIdByName("Untouched"));
+    }
+
+    @Test
+    public void testLoadRejectsCorruptedHeader() throws Exception {
+        portal.saveCyclingPortal(file);
+        Path path = folder.getRoot().toPath().resolve("portal.snapshot");
+        byte[] bytes = Files.readAllBytes(path);
+        CyclingPortalImpl loaded = new CyclingPortalImpl();
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 0x55;
+        Files.write(path, badMagic);
+        try {
+            loaded.loadCyclingPortal(file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Not a cycling portal snapshot.", e.getMessage());
+        }
+
+        byte[] badVersion = bytes.clone();
+        badVersion[4] = 0x7F;
+        Files.write(path, badVersion);
+        try {
+            loaded.loadCyclingPortal(file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Unsupported snapshot version 127.", e.getMessage());
+        }
+        assertEquals(0, loaded.getRaceIds().length);
+    }
+
+    @Test
+    public void testOpenDecodesResultsOnFirstQuery() throws Exception {
+        portal.saveCyclingPortal(file);
+        CyclingPortalImpl opened = new CyclingPortalImpl();
+        opened.openCyclingPortal(file);
+        assertArrayEquals(portal.getRidersRankInStage(mountain), opened.getRidersRankInStage(mountain));
+        assertEquals(portal.getRiderRankInStage(flat, riders[2]), opened.getRiderRankInStage(flat, riders[2]));
+        assertSamePortal(portal, opened);
+    }
+
+    @Test
+    public void testOpenThenRemoveRiderWithUndecodedResults() throws Exception {
+        portal.saveCyclingPortal(file);
+        CyclingPortalImpl opened = new CyclingPortalImpl();
+        opened.openCyclingPortal(file);
+        portal.removeRider(riders[1]);
+        opened.removeRider(riders[1]);
+        assertEquals(0, opened.getRiderResultsInStage(flat, riders[1]).length);
+        assertSamePortal(portal, opened);
+    }
+
+    @Test
+    public void testOpenThenRemoveStageWithNewResults() throws Exception {
+        portal.saveCyclingPortal(file);
+        CyclingPortalImpl opened = new CyclingPortalImpl();
+        opened.openCyclingPortal(file);
+        int late = opened.createRider(opened.getTeams()[0], "Late", 1995);
+        opened.registerRiderResultsInStage(flat, late, LocalTime.of(10, 0), LocalTime.of(12, 0), LocalTime.of(13, 0));
+        opened.removeStageById(flat);
+        opened.removeRider(late);
+        opened.removeRaceById(opened.getRaceIds()[0]);
+        opened.removeRider(riders[0]);
+        assertArrayEquals(Arrays.copyOfRange(riders, 1, riders.length), opened.getTeamRiders(opened.getTeams()[0]));
+    }
+
+    @Test
+    public void testOpenThenSaveToSameFile() throws Exception {
+        portal.saveCyclingPortal(file);
+        CyclingPortalImpl opened = new CyclingPortalImpl();
+        opened.openCyclingPortal(file);
+        // Change one stage so the other is still undecoded, and still mapped from the file, when saving over it.
+        portal.deleteRiderResultsInStage(flat, riders[0]);
+        opened.deleteRiderResultsInStage(flat, riders[0]);
+        opened.saveCyclingPortal(file);
+        assertArrayEquals(portal.getRidersRankInStage(mountain), opened.getRidersRankInStage(mountain));
+        assertArrayEquals(portal.getRiderResultsInStage(mountain, riders[3]), opened.getRiderResultsInStage(mountain, riders[3]));
+        CyclingPortalImpl reloaded = new CyclingPortalImpl();
+        reloaded.loadCyclingPortal(file);
+        assertSamePortal(portal, reloaded);
+    }
+}
@@ -0,0 +1,138 @@
+package cycling;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class ResultsCsvImporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CyclingPortalImpl portal;
+    private int stageId;
+    private int teamId;
+
+    @Before
+    public void setUp() throws Exception {
+        portal = new CyclingPortalImpl();
+        int raceId = portal.createRace("TourDeJava", "A challenging race");
+        stageId = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        portal.addIntermediateSprintToStage(stageId, 75.0);
+        portal.concludeStagePreparation(stageId);
+        teamId = portal.createTeam("TeamJava", "A strong team");
+    }
+
+    private String write(String contents) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        return file.getPath();
+    }
+
+    @Test
+    public void testImportRegistersValidRows() throws Exception {
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        String file = write("rider,start,sprint,finish\r\n"
+                + rider1 + ",10:00:00,11:02:13.250,13:45:07\r\n"
+                + "\r\n"
+                + rider2 + ",9:00:00,10:30:00,12:00:00.123456789");
+        ResultsImportReport report = portal.importRiderResultsInStage(stageId, file);
+
+        assertEquals(2, report.getRegisteredRows());
+        assertEquals(0, report.getRejectedRows());
+        assertArrayEquals(new int[] { rider2, rider1 }, portal.getRidersRankInStage(stageId));
+        assertArrayEquals(new LocalTime[] { LocalTime.of(10, 0), LocalTime.of(11, 2, 13, 250_000_000), LocalTime.of(13, 45, 7) },
+                portal.getRiderResultsInStage(stageId, rider1));
+        assertEquals(LocalTime.of(12, 0, 0, 123_456_789), portal.getRiderResultsInStage(stageId, rider2)[2]);
+    }
+
+    @Test
+    public void testImportReportsRejectedRows() throws Exception {
+        int rider1 = portal.createRider(teamId, "John Doe", 1990);
+        int rider2 = portal.createRider(teamId, "Jane Doe", 1991);
+        int rider3 = portal.createRider(teamId, "Jim Doe", 1992);
+        int rider4 = portal.createRider(teamId, "Joe Doe", 1993);
+        portal.registerRiderResultsInStage(stageId, rider4, LocalTime.of(10, 0), LocalTime.of(11, 0), LocalTime.of(13, 0));
+        String file = write(rider1 + ",10:00:00,11:00:00,13:00:00\n"
+                + rider1 + ",10:00:00,11:00:00,13:01:00\n"
+                + "999,10:00:00,11:00:00,13:00:00\n"
+                + rider2 + ",10:00:00,11:6x:00,13:00:00\n"
+                + rider2 + ",10:00:00,13:00:00\n"
+                + rider4 + ",10:00:00,11:00:00,13:00:00\n"
+                + "rider,start,sprint,finish\n"
+                + rider3 + ",10:00:00,11:00:00,13:02:00\n");
+        ResultsImportReport report = portal.importRiderResultsInStage(stageId, file);
+
+        assertEquals(2, report.getRegisteredRows());
+        assertEquals(6, report.getRejectedRows());
+        List<ResultsImportReport.RowError> errors = report.getErrors();
+        long[] lines = { 2, 3, 4, 5, 6, 7 };
+        ResultsImportReport.Reason[] reasons = { ResultsImportReport.Reason.DUPLICATED_RESULT,
+                ResultsImportReport.Reason.RIDER_NOT_RECOGNISED, ResultsImportReport.Reason.MALFORMED_ROW,
+                ResultsImportReport.Reason.INVALID_CHECKPOINT_TIMES, ResultsImportReport.Reason.DUPLICATED_RESULT,
+                ResultsImportReport.Reason.MALFORMED_ROW };
+        for (int i = 0; i < errors.size(); i++) {
+            assertEquals(lines[i], errors.get(i).getLine());
+            assertEquals(reasons[i], errors.get(i).getReason());
+        }
+        assertEquals("Registered rows: 2, Rejected rows: 6", report.toString());
+        assertArrayEquals(new int[] { rider1, rider4, rider3 }, portal.getRidersRankInStage(stageId));
+        assertEquals(LocalTime.of(13, 0), portal.getRiderResultsInStage(stageId, rider1)[2]);
+        assertEquals(0, portal.getRiderResultsInStage(stageId, rider2).length);
+    }
+
+    @Test
+    public void testImportCommitsLargeFilesInBatches() throws Exception {
+        // More rows than fit in one batch, so the import applies several.
+        int count = 40000;
+        StringBuilder csv = new StringBuilder("rider,start,sprint,finish\n");
+        int[] riderIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            riderIds[i] = portal.createRider(teamId, "Rider " + i, 1990);
+            csv.append(riderIds[i]).append(",10:00:00,11:00:00,").append(String.format("12:00:%02d.%03d", i / 1000, i % 1000)).append('\n');
+        }
+        csv.append("999999,10:00:00,11:00:00,13:00:00\n");
+        ResultsImportReport report = portal.importRiderResultsInStage(stageId, write(csv.toString()));
+
+        assertEquals(count, report.getRegisteredRows());
+        assertEquals(1, report.getRejectedRows());
+        assertEquals(count + 2, report.getErrors().get(0).getLine());
+        assertArrayEquals(riderIds, portal.getRidersRankInStage(stageId));
+    }
+
+    @Test
+    public void testImportRequiresStageWaitingForResults() throws Exception {
+        int raceId = portal.createRace("TourDeRuby", "Another race");
+        int preparing = portal.addStageToRace(raceId, "Stage1", "Flat stage", 150.0, LocalDateTime.now(), StageType.FLAT);
+        PortalEventFeed.Subscription subscription = portal.enableEventFeed(64).subscribe();
+        try {
+            portal.importRiderResultsInStage(preparing, write(""));
+            fail("Expected InvalidStageStateException");
+        } catch (InvalidStageStateException e) {
+            // expected
+        }
+        assertEquals(0, subscription.getBacklog());
+    }
+
+    @Test
+    public void testImportWithoutRegisteredRowsPublishesNothing() throws Exception {
+        PortalEventFeed.Subscription subscription = portal.enableEventFeed(64).subscribe();
+        ResultsImportReport report = portal.importRiderResultsInStage(stageId, write("rider,start,sprint,finish\n999,10:00:00,11:00:00,13:00:00\n"));
+        assertEquals(0, report.getRegisteredRows());
+        assertEquals(1, report.getRejectedRows());
+        assertEquals(0, subscription.getBacklog());
+
+        int rider = portal.createRider(teamId, "John Doe", 1990);
+        portal.importRiderResultsInStage(stageId, write(rider + ",10:00:00,11:00:00,13:00:00\n"));
+        assertEquals(2, subscription.getBacklog());
+    }
+}
@@ -1,48 +1,100 @@
 package cycling;
 
-import java.io.*;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
- * CyclingPortalImpl is the attempt of creating a functioning implementer of the MiniCyclingPortal interface.
+ * CyclingPortalImpl is the attempt of creating a functioning implementer of the CyclingPortal interface.
+ * <p>
+ * The portal is safe for concurrent use. Changes to races, stages, checkpoints,
+ * teams and riders are serialised by a structure lock, which result registration
+ * only takes in shared mode, so results for different stages are registered in
+ * parallel, each under the lock of its own {@link Stage}. Queries take no portal
+ * lock at all and never wait for writes to unrelated stages.
+ * <p>
+ * With {@link #enableJournal(String)} every successful change is also appended
+ * to a journal next to a snapshot, so {@link #loadCyclingPortal(String)} can
+ * recover the changes made after the last save. Changes to results, stages and
+ * riders are also published on the {@link #getEventFeed() event feed}, for
+ * consumers that need to follow them as they happen.
  * 
  * @author Ahnaf Tahmid Haque
  * @version 2.0
  *
  */
-public class CyclingPortalImpl implements MiniCyclingPortal {
-    private Map<Integer, Race> races = new HashMap<>();
-    private Map<Integer, Team> teams = new HashMap<>();
-    private Map<Integer, Rider> riders = new HashMap<>();
-    private int nextRaceId = 1;
-    private int nextTeamId = 1;
-    private int nextRiderId = 1;
-    private int nextStageId = 1;
-    private int nextCheckpointId = 1;
+public class CyclingPortalImpl implements CyclingPortal {
+    /**
+     * The number of events held by the feed returned by {@link #getEventFeed()}.
+     */
+    public static final int DEFAULT_EVENT_FEED_CAPACITY = 1 << 16;
+
+    private final Map<Integer, Race> races = new ConcurrentHashMap<>();
+    private final Map<Integer, Team> teams = new ConcurrentHashMap<>();
+    private final Map<Integer, Rider> riders = new ConcurrentHashMap<>();
+    private final Map<String, Race> raceNames = new ConcurrentHashMap<>();
+    private final Map<String, Team> teamNames = new ConcurrentHashMap<>();
+    private final Map<Integer, Stage> stagesById = new ConcurrentHashMap<>();
+    private final Map<Integer, Race> stageRaces = new ConcurrentHashMap<>();
+    private final Map<Integer, Stage> checkpointStages = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRaceId = new AtomicInteger(1);
+    private final AtomicInteger nextTeamId = new AtomicInteger(1);
+    private final AtomicInteger nextRiderId = new AtomicInteger(1);
+    private final AtomicInteger nextStageId = new AtomicInteger(1);
+    private final AtomicInteger nextCheckpointId = new AtomicInteger(1);
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    // Ascending IDs, replaced rather than modified under the structure lock so queries can copy them without locking.
+    private volatile int[] raceIds = new int[0];
+    private volatile int[] teamIds = new int[0];
+    // Stages opened with undecoded results, whose riders are not yet in the riders' indexes.
+    private final Set<Stage> unindexedStages = new HashSet<>();
+    private volatile PortalJournal journal;
+    private Path journalSnapshot;
+    private long journalSyncIntervalMillis;
+    private long journalSequence;
+    private volatile PortalEventFeed eventFeed;
+    // Set under the structure lock while a journal is replayed, whose changes publish no events.
+    private boolean replaying;
 
     // Implementing interface methods
 
     @Override
     public int[] getRaceIds() {
-        return races.keySet().stream().mapToInt(Integer::intValue).toArray();
+        return raceIds.clone();
     }
 
     @Override
     public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
-        if (name == null || name.trim().isEmpty() || name.length() > 30 || name.contains(" ")) {
-            throw new InvalidNameException("Invalid race name.");
-        }
-        for (Race race : races.values()) {
-            if (race.getName().equals(name)) {
+        structureLock.writeLock().lock();
+        try {
+            if (name == null || name.trim().isEmpty() || name.length() > 30 || name.contains(" ")) {
+                throw new InvalidNameException("Invalid race name.");
+            }
+            if (raceNames.containsKey(name)) {
                 throw new IllegalNameException("Race name already exists.");
             }
+            Race race = new Race(nextRaceId.getAndIncrement(), name, description);
+            races.put(race.getId(), race);
+            raceNames.put(name, race);
+            raceIds = appendId(raceIds, race.getId());
+            if (journal != null) {
+                journal.raceCreated(race.getId(), name, description);
+            }
+            return race.getId();
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        Race race = new Race(nextRaceId++, name, description);
-        races.put(race.getId(), race);
-        return race.getId();
     }
 
     @Override
@@ -56,41 +108,93 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 
     @Override
     public void removeRaceById(int raceId) throws IDNotRecognisedException {
-        if (races.remove(raceId) == null) {
-            throw new IDNotRecognisedException("Race ID not recognised.");
+        structureLock.writeLock().lock();
+        try {
+            Race race = races.remove(raceId);
+            if (race == null) {
+                throw new IDNotRecognisedException("Race ID not recognised.");
+            }
+            raceIds = removeId(raceIds, raceId);
+            raceNames.remove(race.getName());
+            for (Stage stage : race.getStages()) {
+                unindexStage(stage);
+            }
+            if (journal != null) {
+                journal.raceRemoved(raceId);
+            }
+        } finally {
+            structureLock.writeLock().unlock();
         }
     }
 
+    @Override
+    public void removeRaceByName(String name) throws NameNotRecognisedException {
+        structureLock.writeLock().lock();
+        try {
+            try {
+                removeRaceById(getRaceIdByName(name));
+            } catch (IDNotRecognisedException e) {
+                throw new NameNotRecognisedException("Race name not recognised.");
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up a race by its unique name.
+     *
+     * @param name The name of the race.
+     * @return The ID of the race.
+     * @throws NameNotRecognisedException If the name does not match any race.
+     */
+    public int getRaceIdByName(String name) throws NameNotRecognisedException {
+        // The concurrent map does not accept null keys.
+        Race race = name == null ? null : raceNames.get(name);
+        if (race == null) {
+            throw new NameNotRecognisedException("Race name not recognised.");
+        }
+        return race.getId();
+    }
+
     @Override
     public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
         Race race = races.get(raceId);
         if (race == null) {
             throw new IDNotRecognisedException("Race ID not recognised.");
         }
-        return race.getStages().size();
+        return race.getNumberOfStages();
     }
 
     @Override
     public int addStageToRace(int raceId, String stageName, String description, double length, LocalDateTime startTime, StageType type)
             throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
-        if (stageName == null || stageName.trim().isEmpty() || stageName.length() > 30 || stageName.contains(" ")) {
-            throw new InvalidNameException("Invalid stage name.");
-        }
-        if (length < 5) {
-            throw new InvalidLengthException("Stage length must be at least 5 km.");
-        }
-        Race race = races.get(raceId);
-        if (race == null) {
-            throw new IDNotRecognisedException("Race ID not recognised.");
-        }
-        for (Stage stage : race.getStages()) {
-            if (stage.getName().equals(stageName)) {
+        structureLock.writeLock().lock();
+        try {
+            if (stageName == null || stageName.trim().isEmpty() || stageName.length() > 30 || stageName.contains(" ")) {
+                throw new InvalidNameException("Invalid stage name.");
+            }
+            if (length < 5) {
+                throw new InvalidLengthException("Stage length must be at least 5 km.");
+            }
+            Race race = races.get(raceId);
+            if (race == null) {
+                throw new IDNotRecognisedException("Race ID not recognised.");
+            }
+            if (race.getStageByName(stageName) != null) {
                 throw new IllegalNameException("Stage name already exists.");
             }
+            Stage stage = new Stage(nextStageId.getAndIncrement(), stageName, description, length, startTime, type);
+            race.addStage(stage);
+            stagesById.put(stage.getId(), stage);
+            stageRaces.put(stage.getId(), race);
+            if (journal != null) {
+                journal.stageAdded(raceId, stage.getId(), stageName, description, length, startTime, type);
+            }
+            return stage.getId();
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        Stage stage = new Stage(nextStageId++, stageName, description, length, startTime, type);
-        race.addStage(stage);
-        return stage.getId();
     }
 
     @Override
@@ -99,7 +203,28 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
         if (race == null) {
             throw new IDNotRecognisedException("Race ID not recognised.");
         }
-        return race.getStages().stream().mapToInt(Stage::getId).toArray();
+        return race.getStageIds();
+    }
+
+    /**
+     * Looks up a stage by its name within a race.
+     *
+     * @param raceId The ID of the race the stage belongs to.
+     * @param stageName The name of the stage.
+     * @return The ID of the stage.
+     * @throws IDNotRecognisedException If the ID does not match any race.
+     * @throws NameNotRecognisedException If the name does not match any stage of the race.
+     */
+    public int getStageIdByName(int raceId, String stageName) throws IDNotRecognisedException, NameNotRecognisedException {
+        Race race = races.get(raceId);
+        if (race == null) {
+            throw new IDNotRecognisedException("Race ID not recognised.");
+        }
+        Stage stage = race.getStageByName(stageName);
+        if (stage == null) {
+            throw new NameNotRecognisedException("Stage name not recognised.");
+        }
+        return stage.getId();
     }
 
     @Override
@@ -110,92 +235,179 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 
     @Override
     public void removeStageById(int stageId) throws IDNotRecognisedException {
-        for (Race race : races.values()) {
-            if (race.removeStageById(stageId)) {
-                return;
+        structureLock.writeLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            stageRaces.get(stageId).removeStageById(stageId);
+            unindexStage(stage);
+            if (journal != null) {
+                journal.stageRemoved(stageId);
             }
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        throw new IDNotRecognisedException("Stage ID not recognised.");
     }
 
     @Override
     public int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type, Double averageGradient, Double length)
             throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
-        Stage stage = findStage(stageId);
-        if (stage.getType() == StageType.TT) {
-            throw new InvalidStageTypeException("Time-trial stages cannot contain any checkpoint.");
-        }
-        if (location < 0 || location > stage.getLength()) {
-            throw new InvalidLocationException("Invalid location.");
+        structureLock.writeLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            if (stage.getType() == StageType.TT) {
+                throw new InvalidStageTypeException("Time-trial stages cannot contain any checkpoint.");
+            }
+            if (stage.isWaitingForResults()) {
+                throw new InvalidStageStateException("Stage is waiting for results.");
+            }
+            if (location < 0 || location > stage.getLength()) {
+                throw new InvalidLocationException("Invalid location.");
+            }
+            Checkpoint checkpoint = new Checkpoint(nextCheckpointId.getAndIncrement(), location, type, averageGradient, length);
+            stage.addCheckpoint(checkpoint);
+            checkpointStages.put(checkpoint.getId(), stage);
+            if (journal != null) {
+                journal.climbAdded(stageId, checkpoint.getId(), location, type, averageGradient, length);
+            }
+            return checkpoint.getId();
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        Checkpoint checkpoint = new Checkpoint(nextCheckpointId++, location, type, averageGradient, length);
-        stage.addCheckpoint(checkpoint);
-        return checkpoint.getId();
     }
 
     @Override
     public int addIntermediateSprintToStage(int stageId, double location) throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
-        Stage stage = findStage(stageId);
-        if (stage.getType() == StageType.TT) {
-            throw new InvalidStageTypeException("Time-trial stages cannot contain any checkpoint.");
-        }
-        if (location < 0 || location > stage.getLength()) {
-            throw new InvalidLocationException("Invalid location.");
+        structureLock.writeLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            if (stage.getType() == StageType.TT) {
+                throw new InvalidStageTypeException("Time-trial stages cannot contain any checkpoint.");
+            }
+            if (stage.isWaitingForResults()) {
+                throw new InvalidStageStateException("Stage is waiting for results.");
+            }
+            if (location < 0 || location > stage.getLength()) {
+                throw new InvalidLocationException("Invalid location.");
+            }
+            Checkpoint checkpoint = new Checkpoint(nextCheckpointId.getAndIncrement(), location, CheckpointType.SPRINT, null, null);
+            stage.addCheckpoint(checkpoint);
+            checkpointStages.put(checkpoint.getId(), stage);
+            if (journal != null) {
+                journal.sprintAdded(stageId, checkpoint.getId(), location);
+            }
+            return checkpoint.getId();
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        Checkpoint checkpoint = new Checkpoint(nextCheckpointId++, location, CheckpointType.SPRINT, null, null);
-        stage.addCheckpoint(checkpoint);
-        return checkpoint.getId();
     }
 
     @Override
     public void removeCheckpoint(int checkpointId) throws IDNotRecognisedException, InvalidStageStateException {
-        for (Race race : races.values()) {
-            for (Stage stage : race.getStages()) {
-                if (stage.removeCheckpointById(checkpointId)) {
-                    return;
-                }
+        structureLock.writeLock().lock();
+        try {
+            Stage stage = checkpointStages.get(checkpointId);
+            if (stage == null) {
+                throw new IDNotRecognisedException("Checkpoint ID not recognised.");
             }
+            if (stage.isWaitingForResults()) {
+                throw new InvalidStageStateException("Stage is waiting for results.");
+            }
+            stage.removeCheckpointById(checkpointId);
+            checkpointStages.remove(checkpointId);
+            if (journal != null) {
+                journal.checkpointRemoved(checkpointId);
+            }
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        throw new IDNotRecognisedException("Checkpoint ID not recognised.");
     }
 
     @Override
     public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
-        Stage stage = findStage(stageId);
-        stage.setWaitingForResults(true);
+        structureLock.writeLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            if (stage.isWaitingForResults()) {
+                throw new InvalidStageStateException("Stage is already waiting for results.");
+            }
+            stage.setWaitingForResults(true);
+            if (journal != null) {
+                journal.stagePreparationConcluded(stageId);
+            }
+            publish(PortalEventType.STAGE_CONCLUDED, stageRaces.get(stageId).getId(), stageId, 0);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
     }
 
     @Override
     public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
         Stage stage = findStage(stageId);
-        return stage.getCheckpoints().stream().mapToInt(Checkpoint::getId).toArray();
+        return stage.getCheckpointIds();
     }
 
     @Override
     public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
-        if (name == null || name.trim().isEmpty() || name.length() > 30 || name.contains(" ")) {
-            throw new InvalidNameException("Invalid team name.");
-        }
-        for (Team team : teams.values()) {
-            if (team.getName().equals(name)) {
+        structureLock.writeLock().lock();
+        try {
+            if (name == null || name.trim().isEmpty() || name.length() > 30 || name.contains(" ")) {
+                throw new InvalidNameException("Invalid team name.");
+            }
+            if (teamNames.containsKey(name)) {
                 throw new IllegalNameException("Team name already exists.");
             }
+            Team team = new Team(nextTeamId.getAndIncrement(), name, description);
+            teams.put(team.getId(), team);
+            teamNames.put(name, team);
+            teamIds = appendId(teamIds, team.getId());
+            if (journal != null) {
+                journal.teamCreated(team.getId(), name, description);
+            }
+            return team.getId();
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up a team by its unique name.
+     *
+     * @param name The name of the team.
+     * @return The ID of the team.
+     * @throws NameNotRecognisedException If the name does not match any team.
+     */
+    public int getTeamIdByName(String name) throws NameNotRecognisedException {
+        // The concurrent map does not accept null keys.
+        Team team = name == null ? null : teamNames.get(name);
+        if (team == null) {
+            throw new NameNotRecognisedException("Team name not recognised.");
         }
-        Team team = new Team(nextTeamId++, name, description);
-        teams.put(team.getId(), team);
         return team.getId();
     }
 
     @Override
     public void removeTeam(int teamId) throws IDNotRecognisedException {
-        if (teams.remove(teamId) == null) {
-            throw new IDNotRecognisedException("Team ID not recognised.");
+        structureLock.writeLock().lock();
+        try {
+            Team team = teams.get(teamId);
+            if (team == null) {
+                throw new IDNotRecognisedException("Team ID not recognised.");
+            }
+            removeRiders(team.getRiders());
+            teams.remove(teamId);
+            teamIds = removeId(teamIds, teamId);
+            teamNames.remove(team.getName());
+            if (journal != null) {
+                journal.teamRemoved(teamId);
+            }
+        } finally {
+            structureLock.writeLock().unlock();
         }
     }
 
     @Override
     public int[] getTeams() {
-        return teams.keySet().stream().mapToInt(Integer::intValue).toArray();
+        return teamIds.clone();
     }
 
     @Override
@@ -204,39 +416,220 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
         if (team == null) {
             throw new IDNotRecognisedException("Team ID not recognised.");
         }
-        return team.getRiders().stream().mapToInt(Rider::getId).toArray();
+        return team.getRiderIds();
     }
 
     @Override
     public int createRider(int teamID, String name, int yearOfBirth) throws IDNotRecognisedException, IllegalArgumentException {
-        if (name == null || name.trim().isEmpty() || yearOfBirth < 1900) {
-            throw new IllegalArgumentException("Invalid rider name or year of birth.");
-        }
-        Team team = teams.get(teamID);
-        if (team == null) {
-            throw new IDNotRecognisedException("Team ID not recognised.");
+        structureLock.writeLock().lock();
+        try {
+            if (name == null || name.trim().isEmpty() || yearOfBirth < 1900) {
+                throw new IllegalArgumentException("Invalid rider name or year of birth.");
+            }
+            Team team = teams.get(teamID);
+            if (team == null) {
+                throw new IDNotRecognisedException("Team ID not recognised.");
+            }
+            Rider rider = new Rider(nextRiderId.getAndIncrement(), name, yearOfBirth, team);
+            team.addRider(rider);
+            riders.put(rider.getId(), rider);
+            if (journal != null) {
+                journal.riderCreated(teamID, rider.getId(), name, yearOfBirth);
+            }
+            return rider.getId();
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        Rider rider = new Rider(nextRiderId++, name, yearOfBirth, team);
-        team.addRider(rider);
-        riders.put(rider.getId(), rider);
-        return rider.getId();
     }
 
     @Override
     public void removeRider(int riderId) throws IDNotRecognisedException {
-        Rider rider = riders.remove(riderId);
-        if (rider == null) {
-            throw new IDNotRecognisedException("Rider ID not recognised.");
+        structureLock.writeLock().lock();
+        try {
+            Rider rider = riders.get(riderId);
+            if (rider == null) {
+                throw new IDNotRecognisedException("Rider ID not recognised.");
+            }
+            rider.getTeam().removeRider(rider);
+            removeRiders(Collections.singletonList(rider));
+            if (journal != null) {
+                journal.riderRemoved(riderId);
+            }
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        rider.getTeam().removeRider(rider);
     }
 
     @Override
     public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpointTimes)
             throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
-        Stage stage = findStage(stageId);
-        Rider rider = findRider(riderId);
-        stage.registerRiderResults(rider, checkpointTimes);
+        structureLock.readLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            Rider rider = findRider(riderId);
+            boolean changed = false;
+            try {
+                // The stage's lock keeps journal records in the order changes were applied.
+                synchronized (stage) {
+                    stage.registerRiderResults(rider, checkpointTimes);
+                    rider.resultRegistered(stage);
+                    changed = true;
+                    publish(PortalEventType.RESULT_REGISTERED, stageRaces.get(stageId).getId(), stageId, riderId);
+                    if (journal != null) {
+                        journal.resultsRegistered(stageId, riderId, checkpointTimes);
+                    }
+                }
+            } finally {
+                // Also when the journal fails, since the change has been made in memory.
+                if (changed) {
+                    classificationChanged(stage);
+                }
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records the times of many riders in a stage in one call. The stage is
+     * resolved and validated once, all rows are checked before any is stored,
+     * and rankings and classifications are updated once for the whole batch.
+     * <p>
+     * The state of this CyclingPortal is unchanged if any exception is thrown.
+     *
+     * @param stageId         The ID of the stage the results refer to.
+     * @param riderIds        The IDs of the riders.
+     * @param checkpointTimes For each rider, in the same order as {@code riderIds},
+     *                        the times as accepted by
+     *                        {@link #registerRiderResultsInStage(int, int, LocalTime...)}.
+     * @throws IDNotRecognisedException        If any ID does not match a rider or
+     *                                         the stage.
+     * @throws DuplicatedResultException       If any rider already has a result for
+     *                                         the stage or appears twice.
+     * @throws InvalidCheckpointTimesException If any row does not hold n+2 times.
+     * @throws InvalidStageStateException      If the stage is not "waiting for
+     *                                         results".
+     * @throws IllegalArgumentException        If the two arrays differ in length.
+     */
+    public void registerRiderResultsInStage(int stageId, int[] riderIds, LocalTime[][] checkpointTimes)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+        if (riderIds.length != checkpointTimes.length) {
+            throw new IllegalArgumentException("Each rider needs exactly one row of checkpoint times.");
+        }
+        structureLock.readLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            Rider[] batch = new Rider[riderIds.length];
+            for (int i = 0; i < riderIds.length; i++) {
+                batch[i] = findRider(riderIds[i]);
+            }
+            boolean changed = false;
+            try {
+                synchronized (stage) {
+                    stage.registerRiderResults(riderIds, checkpointTimes);
+                    for (Rider rider : batch) {
+                        rider.resultRegistered(stage);
+                    }
+                    changed = true;
+                    int raceId = stageRaces.get(stageId).getId();
+                    for (int riderId : riderIds) {
+                        publish(PortalEventType.RESULT_REGISTERED, raceId, stageId, riderId);
+                    }
+                    if (journal != null) {
+                        journal.resultsRegistered(stageId, riderIds, checkpointTimes);
+                    }
+                }
+            } finally {
+                if (changed) {
+                    classificationChanged(stage);
+                }
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Registers the results of a stage from a CSV finish sheet, one rider per
+     * line: the rider ID followed by the start time, the time at every checkpoint
+     * and the finish time, e.g. {@code 17,10:00:00,11:02:13.250,13:45:07}. The
+     * file is memory-mapped and parsed without creating intermediate objects.
+     * <p>
+     * Invalid rows are reported in the returned {@link ResultsImportReport} and
+     * skipped; every other row is registered. If an {@link IOException} is
+     * thrown, rows parsed before the failure remain registered.
+     *
+     * @param stageId  The ID of the stage the results refer to.
+     * @param filename Location of the CSV file.
+     * @return A report of the registered and rejected rows.
+     * @throws IDNotRecognisedException   If the ID does not match any stage.
+     * @throws InvalidStageStateException If the stage is not "waiting for results".
+     * @throws IOException                If the file cannot be read.
+     */
+    public ResultsImportReport importRiderResultsInStage(int stageId, String filename)
+            throws IDNotRecognisedException, InvalidStageStateException, IOException {
+        structureLock.readLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            ResultsCsvImporter importer = null;
+            try {
+                synchronized (stage) {
+                    if (!stage.isWaitingForResults()) {
+                        throw new InvalidStageStateException("Stage is not waiting for results.");
+                    }
+                    importer = new ResultsCsvImporter(stage, riders::get, journal, eventFeed, stageRaces.get(stageId).getId());
+                    return importer.importFile(Paths.get(filename));
+                }
+            } finally {
+                // Outside the stage's lock, which must not be held while taking the classification's.
+                // Batches applied before a failure have changed the classification too.
+                if (importer != null && importer.getReport().getRegisteredRows() > 0) {
+                    classificationChanged(stage);
+                }
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records the times of a rider who has passed some of a stage's checkpoints
+     * but not finished yet, so that the rider appears in
+     * {@link #getRidersRankAtCheckpoint(int, int)} for those checkpoints. Calling
+     * it again as the rider passes further checkpoints replaces the times;
+     * registering the rider's result replaces them for good.
+     * <p>
+     * Passages are live data for race day: they are neither saved in snapshots
+     * nor written to the journal, and do not count towards any classification.
+     *
+     * @param stageId      The ID of the stage the times refer to.
+     * @param riderId      The ID of the rider.
+     * @param passageTimes The start time followed by the times at which the rider
+     *                     reached the first checkpoints of the stage, in the order
+     *                     of {@link #getStageCheckpoints(int)}.
+     * @throws IDNotRecognisedException        If the ID does not match any rider or
+     *                                         stage.
+     * @throws DuplicatedResultException       If the rider already has a result for
+     *                                         the stage.
+     * @throws InvalidCheckpointTimesException If there are fewer than two times,
+     *                                         more than the checkpoints plus the
+     *                                         start, or a time is null.
+     * @throws InvalidStageStateException      If the stage is not "waiting for
+     *                                         results".
+     */
+    public void registerRiderPassagesInStage(int stageId, int riderId, LocalTime... passageTimes)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+        structureLock.readLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            Rider rider = findRider(riderId);
+            synchronized (stage) {
+                stage.registerRiderPassages(riderId, passageTimes);
+                rider.resultRegistered(stage);
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
     }
 
     @Override
@@ -253,8 +646,33 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 
     @Override
     public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
-        Stage stage = findStage(stageId);
-        stage.deleteRiderResults(riderId);
+        structureLock.readLock().lock();
+        try {
+            Stage stage = findStage(stageId);
+            boolean changed = false;
+            try {
+                synchronized (stage) {
+                    changed = stage.deleteRiderResults(riderId);
+                    Rider rider = riders.get(riderId);
+                    if (rider != null) {
+                        rider.resultDeleted(stage);
+                    }
+                    // Passages alone are neither journalled nor classified.
+                    if (changed) {
+                        publish(PortalEventType.RESULT_DELETED, stageRaces.get(stageId).getId(), stageId, riderId);
+                        if (journal != null) {
+                            journal.resultsDeleted(stageId, riderId);
+                        }
+                    }
+                }
+            } finally {
+                if (changed) {
+                    classificationChanged(stage);
+                }
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
     }
 
     @Override
@@ -263,6 +681,121 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
         return stage.getRidersRank();
     }
 
+    /**
+     * Gets the finishing position of a rider in a stage.
+     *
+     * @param stageId The ID of the stage being queried.
+     * @param riderId The ID of the rider.
+     * @return The one-based position of the rider, or -1 if the rider has no
+     *         result registered in the stage.
+     * @throws IDNotRecognisedException If the ID does not match any rider or stage.
+     */
+    public int getRiderRankInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        Stage stage = findStage(stageId);
+        findRider(riderId);
+        return stage.getRiderRank(riderId);
+    }
+
+    /**
+     * Gets the leading riders of a stage. Only the requested riders are copied
+     * from the stage's ranking, so the cost does not grow with the size of the
+     * field.
+     *
+     * @param stageId The ID of the stage being queried.
+     * @param count   The number of riders to return.
+     * @return The first {@code count} riders of the stage, or all of them if
+     *         fewer have results.
+     * @throws IDNotRecognisedException If the ID does not match any stage.
+     * @throws IllegalArgumentException If the count is not positive.
+     */
+    public StageLeaderboard getStageLeaderboard(int stageId, int count) throws IDNotRecognisedException {
+        return getStageLeaderboard(stageId, 1, count);
+    }
+
+    /**
+     * Gets the riders ranked between two positions of a stage, for showing a
+     * long ranking a page at a time.
+     *
+     * @param stageId       The ID of the stage being queried.
+     * @param firstPosition The one-based position of the first rider to return.
+     * @param lastPosition  The one-based position of the last rider to return.
+     * @return The riders from {@code firstPosition} to {@code lastPosition},
+     *         cut short at the last ranked rider; empty if fewer riders than
+     *         {@code firstPosition} have results.
+     * @throws IDNotRecognisedException If the ID does not match any stage.
+     * @throws IllegalArgumentException If the first position is less than 1 or
+     *                                  the last position is before it.
+     */
+    public StageLeaderboard getStageLeaderboard(int stageId, int firstPosition, int lastPosition) throws IDNotRecognisedException {
+        if (firstPosition < 1 || lastPosition < firstPosition) {
+            throw new IllegalArgumentException("Invalid range of positions.");
+        }
+        Stage stage = findStage(stageId);
+        return stage.getLeaderboard(firstPosition, lastPosition);
+    }
+
+    /**
+     * Ranks the riders by the time they took from the start to a checkpoint,
+     * including riders whose passage of the checkpoint was recorded with
+     * {@link #registerRiderPassagesInStage(int, int, LocalTime...)} but who have
+     * not finished yet. The ranking is kept up to date as results and passages
+     * arrive. Riders with the same time are ordered by ID.
+     *
+     * @param stageId      The ID of the stage being queried.
+     * @param checkpointId The ID of a checkpoint of the stage.
+     * @return The IDs of the riders in order of passage.
+     * @throws IDNotRecognisedException If the stage does not exist or does not
+     *                                  contain the checkpoint.
+     */
+    public int[] getRidersRankAtCheckpoint(int stageId, int checkpointId) throws IDNotRecognisedException {
+        return getRidersRankAtCheckpoint(stageId, checkpointId, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the first riders of {@link #getRidersRankAtCheckpoint(int, int)},
+     * copying only as many as requested.
+     *
+     * @param stageId      The ID of the stage being queried.
+     * @param checkpointId The ID of a checkpoint of the stage.
+     * @param count        The largest number of riders to return.
+     * @return The IDs of up to {@code count} riders in order of passage.
+     * @throws IDNotRecognisedException If the stage does not exist or does not
+     *                                  contain the checkpoint.
+     * @throws IllegalArgumentException If the count is negative.
+     */
+    public int[] getRidersRankAtCheckpoint(int stageId, int checkpointId, int count) throws IDNotRecognisedException {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count cannot be negative.");
+        }
+        int[] riderIds = findStage(stageId).getRidersRankAtCheckpoint(checkpointId, count);
+        if (riderIds == null) {
+            throw new IDNotRecognisedException("Checkpoint ID not recognised.");
+        }
+        return riderIds;
+    }
+
+    /**
+     * @param stageId      The ID of the stage being queried.
+     * @param checkpointId The ID of a checkpoint of the stage.
+     * @param count        The largest number of times to return.
+     * @return The times from the start to the checkpoint of the riders returned
+     *         by {@link #getRidersRankAtCheckpoint(int, int, int)}, in the same
+     *         order.
+     * @throws IDNotRecognisedException If the stage does not exist or does not
+     *                                  contain the checkpoint.
+     * @throws IllegalArgumentException If the count is negative.
+     */
+    public LocalTime[] getRankedTimesAtCheckpoint(int stageId, int checkpointId, int count) throws IDNotRecognisedException {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count cannot be negative.");
+        }
+        LocalTime[] times = findStage(stageId).getRankedTimesAtCheckpoint(checkpointId, count);
+        if (times == null) {
+            throw new IDNotRecognisedException("Checkpoint ID not recognised.");
+        }
+        return times;
+    }
+
     @Override
     public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
         Stage stage = findStage(stageId);
@@ -281,49 +814,631 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
         return stage.getRidersMountainPoints();
     }
 
+    @Override
+    public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
+        return findRace(raceId).getClassification().getRidersRank();
+    }
+
+    @Override
+    public LocalTime[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
+        // A LocalTime cannot hold a total of 24 hours or more, as grand tours reach, so such totals are
+        // clamped to LocalTime.MAX, which keeps the times in order. getGeneralClassificationDurationsInRace
+        // returns the exact totals.
+        long[] totals = findRace(raceId).getClassification().getRankedTotalNanos();
+        LocalTime[] times = new LocalTime[totals.length];
+        for (int i = 0; i < totals.length; i++) {
+            times[i] = LocalTime.ofNanoOfDay(Math.min(totals[i], LocalTime.MAX.toNanoOfDay()));
+        }
+        return times;
+    }
+
+    /**
+     * Get the general classification times of riders in a race as durations.
+     * Unlike {@link #getGeneralClassificationTimesInRace(int)} the totals are
+     * not limited to 24 hours.
+     *
+     * @param raceId The ID of the race being queried.
+     * @return The riders' cumulative adjusted elapsed times, in the order of
+     *         {@link #getRidersGeneralClassificationRank(int)}.
+     * @throws IDNotRecognisedException If the ID does not match any race.
+     */
+    public Duration[] getGeneralClassificationDurationsInRace(int raceId) throws IDNotRecognisedException {
+        long[] totals = findRace(raceId).getClassification().getRankedTotalNanos();
+        Duration[] durations = new Duration[totals.length];
+        for (int i = 0; i < totals.length; i++) {
+            durations[i] = Duration.ofNanos(totals[i]);
+        }
+        return durations;
+    }
+
+    /**
+     * Get the stages of a race in chronological order: by start time, with
+     * stages without a start time last, each group in the order the stages were
+     * added. Positions in this array are the stage indexes accepted by
+     * {@link #getGeneralClassification(int, int)}.
+     *
+     * @param raceId The ID of the race being queried.
+     * @return The IDs of the race's stages in chronological order.
+     * @throws IDNotRecognisedException If the ID does not match any race.
+     */
+    public int[] getRaceStagesInChronologicalOrder(int raceId) throws IDNotRecognisedException {
+        return findRace(raceId).getClassification().getChronologicalStageIds();
+    }
+
+    /**
+     * Get the general classification of a race as it stood after one of its
+     * stages: the riders with a result in that stage or an earlier one, ranked
+     * by their cumulative adjusted elapsed time over those stages. The
+     * classification after every stage is kept, and correcting the results of a
+     * stage only recomputes it from that stage onwards.
+     *
+     * @param raceId          The ID of the race being queried.
+     * @param afterStageIndex The zero-based position of the stage in
+     *                        {@link #getRaceStagesInChronologicalOrder(int)}.
+     * @return The IDs of the riders in general classification order.
+     * @throws IDNotRecognisedException If the ID does not match any race.
+     * @throws IllegalArgumentException If the race has no stage at the index.
+     */
+    public int[] getGeneralClassification(int raceId, int afterStageIndex) throws IDNotRecognisedException {
+        RaceClassification classification = findRace(raceId).getClassification();
+        synchronized (classification) {
+            checkStageIndex(classification, afterStageIndex);
+            return classification.getRidersRankAfter(afterStageIndex);
+        }
+    }
+
+    /**
+     * @param raceId          The ID of the race being queried.
+     * @param afterStageIndex The zero-based position of the stage in
+     *                        {@link #getRaceStagesInChronologicalOrder(int)}.
+     * @return The cumulative adjusted elapsed times of the riders returned by
+     *         {@link #getGeneralClassification(int, int)}, in the same order.
+     * @throws IDNotRecognisedException If the ID does not match any race.
+     * @throws IllegalArgumentException If the race has no stage at the index.
+     */
+    public Duration[] getGeneralClassificationDurations(int raceId, int afterStageIndex) throws IDNotRecognisedException {
+        RaceClassification classification = findRace(raceId).getClassification();
+        long[] totals;
+        synchronized (classification) {
+            checkStageIndex(classification, afterStageIndex);
+            totals = classification.getRankedTotalNanosAfter(afterStageIndex);
+        }
+        Duration[] durations = new Duration[totals.length];
+        for (int i = 0; i < totals.length; i++) {
+            durations[i] = Duration.ofNanos(totals[i]);
+        }
+        return durations;
+    }
+
+    /**
+     * Get the leader of the general classification after each stage of a race,
+     * e.g. to show who wore the yellow jersey on each day.
+     *
+     * @param raceId The ID of the race being queried.
+     * @return For each stage in {@link #getRaceStagesInChronologicalOrder(int)},
+     *         the ID of the rider leading the general classification after it, or
+     *         0 if no rider had a result yet.
+     * @throws IDNotRecognisedException If the ID does not match any race.
+     */
+    public int[] getGeneralClassificationLeaders(int raceId) throws IDNotRecognisedException {
+        return findRace(raceId).getClassification().getLeaders();
+    }
+
+    @Override
+    public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException {
+        return findRace(raceId).getClassification().getRankedPoints();
+    }
+
+    @Override
+    public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
+        return findRace(raceId).getClassification().getRankedMountainPoints();
+    }
+
+    @Override
+    public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
+        return findRace(raceId).getClassification().getPointsRank();
+    }
+
+    @Override
+    public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException {
+        return findRace(raceId).getClassification().getMountainPointsRank();
+    }
+
+    /**
+     * Recomputes all classifications as {@link #recomputeClassifications(int)}
+     * does, with one thread per available processor.
+     */
+    public void recomputeClassifications() {
+        recomputeClassifications(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Recomputes the adjusted elapsed times and points of every stage and the
+     * general, points and mountain classifications of every race from the
+     * registered results, e.g. after opening a large snapshot, so that later
+     * queries find them ready. Stages are processed first, one task each, then
+     * the races' classifications are rebuilt from them, one task per race.
+     * Results are the same for any parallelism.
+     * <p>
+     * Other changes to the portal wait until the recomputation has finished;
+     * queries do not.
+     *
+     * @param parallelism The number of threads to use. With 1 all the work is
+     *                    done in the calling thread.
+     * @throws IllegalArgumentException If the parallelism is less than 1.
+     */
+    public void recomputeClassifications(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        structureLock.writeLock().lock();
+        try {
+            List<Stage> stages = new ArrayList<>(stagesById.values());
+            List<Race> allRaces = new ArrayList<>(races.values());
+            if (parallelism == 1) {
+                for (Stage stage : stages) {
+                    stage.recomputeSnapshot();
+                }
+                for (Race race : allRaces) {
+                    race.getClassification().rebuild(race.getStages());
+                }
+                return;
+            }
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                invokeAll(pool, stages, Stage::recomputeSnapshot);
+                invokeAll(pool, allRaces, race -> race.getClassification().rebuild(race.getStages()));
+            } finally {
+                pool.shutdown();
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
     @Override
     public void eraseCyclingPortal() {
-        races.clear();
-        teams.clear();
-        riders.clear();
-        nextRaceId = 1;
-        nextTeamId = 1;
-        nextRiderId = 1;
-        nextStageId = 1;
-        nextCheckpointId = 1;
+        structureLock.writeLock().lock();
+        try {
+            races.clear();
+            teams.clear();
+            unindexedStages.clear();
+            raceIds = new int[0];
+            teamIds = new int[0];
+            riders.clear();
+            raceNames.clear();
+            teamNames.clear();
+            stagesById.clear();
+            stageRaces.clear();
+            checkpointStages.clear();
+            nextRaceId.set(1);
+            nextTeamId.set(1);
+            nextRiderId.set(1);
+            nextStageId.set(1);
+            nextCheckpointId.set(1);
+            if (journal != null) {
+                journal.portalErased();
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
     }
 
     @Override
     public void saveCyclingPortal(String filename) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename))) {
-            out.writeObject(this);
+        structureLock.writeLock().lock();
+        try {
+            Path path = Paths.get(filename);
+            writeSnapshot(path);
+            if (journal != null && path.equals(journalSnapshot)) {
+                // Everything journalled so far is now in the snapshot.
+                openJournal(path, journalSyncIntervalMillis);
+            }
+        } finally {
+            structureLock.writeLock().unlock();
         }
     }
 
     @Override
     public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename))) {
-            CyclingPortalImpl loaded = (CyclingPortalImpl) in.readObject();
-            this.races = loaded.races;
-            this.teams = loaded.teams;
-            this.riders = loaded.riders;
-            this.nextRaceId = loaded.nextRaceId;
-            this.nextTeamId = loaded.nextTeamId;
-            this.nextRiderId = loaded.nextRiderId;
-            this.nextStageId = loaded.nextStageId;
-            this.nextCheckpointId = loaded.nextCheckpointId;
+        structureLock.writeLock().lock();
+        try {
+            Path path = Paths.get(filename);
+            restore(path, PortalSnapshot.read(path));
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads a snapshot like {@link #loadCyclingPortal(String)}, but without
+     * reading the results of any stage up front. The file is memory-mapped and
+     * only races, stages, checkpoints, teams and riders are decoded, so the
+     * portal is ready after a fraction of a full load. The results of a stage
+     * are decoded the first time the stage is queried or changed, and a
+     * classification query decodes the stages of its race.
+     * <p>
+     * The snapshot file must not be modified in place while results are still
+     * undecoded; saving to the same file replaces it and is safe. Corrupt
+     * results are only detected when decoded, and are then reported as an
+     * {@link java.io.UncheckedIOException}.
+     *
+     * @param filename Location of the file to be loaded.
+     * @throws IOException If there is a problem experienced when reading the
+     *                     file, or replaying its journal.
+     */
+    public void openCyclingPortal(String filename) throws IOException {
+        structureLock.writeLock().lock();
+        try {
+            Path path = Paths.get(filename);
+            restore(path, PortalSnapshot.map(path));
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    private void restore(Path path, PortalSnapshot snapshot) throws IOException {
+        closeJournal();
+        eraseCyclingPortal();
+        for (Team team : snapshot.teams) {
+            teams.put(team.getId(), team);
+            for (Rider rider : team.getRiders()) {
+                riders.put(rider.getId(), rider);
+            }
+        }
+        for (Race race : snapshot.races) {
+            races.put(race.getId(), race);
+        }
+        nextRaceId.set(snapshot.counters[0]);
+        nextTeamId.set(snapshot.counters[1]);
+        nextRiderId.set(snapshot.counters[2]);
+        nextStageId.set(snapshot.counters[3]);
+        nextCheckpointId.set(snapshot.counters[4]);
+        rebuildIndexes();
+        journalSequence = snapshot.journalSequence;
+        Path journalPath = journalPath(path);
+        if (Files.exists(journalPath)) {
+            replaying = true;
+            try {
+                journalSequence = PortalJournal.replay(journalPath, journalSequence, this);
+            } finally {
+                replaying = false;
+            }
+        }
+    }
+
+    /**
+     * Starts recording every change to this portal, forcing each change to disk
+     * before the call that made it returns. Concurrent changes share one disk
+     * sync. See {@link #enableJournal(String, long)}.
+     *
+     * @param filename Location of the snapshot the journal belongs to.
+     * @throws IOException If the snapshot or the journal cannot be written.
+     */
+    public void enableJournal(String filename) throws IOException {
+        enableJournal(filename, 0);
+    }
+
+    /**
+     * Starts recording every change to this portal in a journal named after the
+     * snapshot with a {@code .journal} suffix. The current state is first saved
+     * to the snapshot, and every later {@link #saveCyclingPortal(String)} to the
+     * same file empties the journal again. After a crash,
+     * {@link #loadCyclingPortal(String)} on the snapshot replays the journal.
+     * Loading a portal stops the journal; enable it again to continue.
+     * <p>
+     * If a journal write fails, the change has still been made in memory, and
+     * is reflected in the classifications and the event feed, and an
+     * {@link java.io.UncheckedIOException} is thrown.
+     *
+     * @param filename           Location of the snapshot the journal belongs to.
+     * @param syncIntervalMillis 0 to force every change to disk before its call
+     *                           returns, otherwise how often to force changes
+     *                           in the background; a crash can then lose up to
+     *                           that much of the latest changes.
+     * @throws IOException If the snapshot or the journal cannot be written.
+     */
+    public void enableJournal(String filename, long syncIntervalMillis) throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("Sync interval cannot be negative.");
+        }
+        structureLock.writeLock().lock();
+        try {
+            closeJournal();
+            Path path = Paths.get(filename);
+            writeSnapshot(path);
+            openJournal(path, syncIntervalMillis);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces every change recorded in the journal to disk. Only needed when
+     * the journal syncs in the background.
+     *
+     * @throws IOException If the journal cannot be written.
+     */
+    public void syncJournal() throws IOException {
+        PortalJournal current = journal;
+        if (current != null) {
+            current.sync();
+        }
+    }
+
+    /**
+     * Forces the journal to disk and stops recording changes.
+     *
+     * @throws IOException If the journal cannot be written.
+     */
+    public void disableJournal() throws IOException {
+        structureLock.writeLock().lock();
+        try {
+            closeJournal();
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the feed on which this portal publishes its changes, creating it
+     * with room for {@value #DEFAULT_EVENT_FEED_CAPACITY} events on first use.
+     * Events are published after a change has been applied: results registered
+     * and deleted, stages concluded, riders removed, and a classification
+     * change for every change to a stage's results. Erasing or loading the
+     * portal publishes no events, including for the changes replayed from its
+     * journal.
+     *
+     * @return The portal's event feed.
+     */
+    public PortalEventFeed getEventFeed() {
+        PortalEventFeed feed = eventFeed;
+        if (feed == null) {
+            synchronized (this) {
+                feed = eventFeed;
+                if (feed == null) {
+                    eventFeed = feed = new PortalEventFeed(DEFAULT_EVENT_FEED_CAPACITY);
+                }
+            }
+        }
+        return feed;
+    }
+
+    /**
+     * Replaces the portal's event feed with an empty one holding the given
+     * number of events. Subscriptions to the previous feed receive no more
+     * events.
+     *
+     * @param capacity The number of events the feed holds before the oldest are
+     *                 overwritten, rounded up to a power of two.
+     * @return The new event feed.
+     * @throws IllegalArgumentException If the capacity is not between 1 and 2^30.
+     */
+    public PortalEventFeed enableEventFeed(int capacity) {
+        structureLock.writeLock().lock();
+        try {
+            PortalEventFeed feed = new PortalEventFeed(capacity);
+            eventFeed = feed;
+            return feed;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    private void writeSnapshot(Path path) throws IOException {
+        int[] counters = { nextRaceId.get(), nextTeamId.get(), nextRiderId.get(), nextStageId.get(), nextCheckpointId.get() };
+        long sequence = journal != null ? journal.getSequence() : journalSequence;
+        PortalSnapshot.write(path, counters, sequence, teams.values(), races.values());
+    }
+
+    private void openJournal(Path snapshot, long syncIntervalMillis) throws IOException {
+        closeJournal();
+        journal = new PortalJournal(journalPath(snapshot), journalSequence, syncIntervalMillis);
+        journalSnapshot = snapshot;
+        journalSyncIntervalMillis = syncIntervalMillis;
+    }
+
+    private void closeJournal() throws IOException {
+        PortalJournal current = journal;
+        if (current != null) {
+            journal = null;
+            journalSnapshot = null;
+            journalSequence = current.getSequence();
+            current.close();
+        }
+    }
+
+    private static Path journalPath(Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+    }
+
+    private Race findRace(int raceId) throws IDNotRecognisedException {
+        Race race = races.get(raceId);
+        if (race == null) {
+            throw new IDNotRecognisedException("Race ID not recognised.");
+        }
+        return race;
+    }
+
+    private static void checkStageIndex(RaceClassification classification, int stageIndex) {
+        if (stageIndex < 0 || stageIndex >= classification.getNumberOfStages()) {
+            throw new IllegalArgumentException("Stage index out of range.");
         }
     }
 
     private Stage findStage(int stageId) throws IDNotRecognisedException {
+        Stage stage = stagesById.get(stageId);
+        if (stage == null) {
+            throw new IDNotRecognisedException("Stage ID not recognised.");
+        }
+        return stage;
+    }
+
+    private void unindexStage(Stage stage) {
+        stagesById.remove(stage.getId());
+        stageRaces.remove(stage.getId());
+        for (int checkpointId : stage.getCheckpointIds()) {
+            checkpointStages.remove(checkpointId);
+        }
+        // Riders may have registered results in a lazily opened stage since it
+        // was opened, so their indexes are cleared whether it was indexed or not.
+        unindexedStages.remove(stage);
+        for (int riderId : stage.getRidersRank()) {
+            Rider rider = riders.get(riderId);
+            if (rider != null) {
+                rider.resultDeleted(stage);
+            }
+        }
+        for (int riderId : stage.getPassingRiderIds()) {
+            Rider rider = riders.get(riderId);
+            if (rider != null) {
+                rider.resultDeleted(stage);
+            }
+        }
+    }
+
+    /**
+     * Removes riders from the portal together with all their results. The
+     * stages they have results in are found through the riders' indexes, and
+     * each stage is updated once, however many of the riders it ranks. The
+     * stages are all found before anything is removed.
+     */
+    private void removeRiders(Collection<Rider> removed) {
+        indexUnindexedStages();
+        Map<Stage, List<Integer>> riderIdsByStage = new LinkedHashMap<>();
+        for (Rider rider : removed) {
+            for (Stage stage : rider.getStagesWithResults()) {
+                // Stages removed from the portal have no results left to delete.
+                if (stagesById.get(stage.getId()) == stage) {
+                    riderIdsByStage.computeIfAbsent(stage, s -> new ArrayList<>()).add(rider.getId());
+                }
+            }
+        }
+        for (Rider rider : removed) {
+            riders.remove(rider.getId());
+        }
+        for (Map.Entry<Stage, List<Integer>> entry : riderIdsByStage.entrySet()) {
+            Stage stage = entry.getKey();
+            int[] riderIds = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            int deleted = stage.deleteRiderResults(riderIds, riderIds.length);
+            if (deleted > 0) {
+                int raceId = stageRaces.get(stage.getId()).getId();
+                for (int i = 0; i < deleted; i++) {
+                    publish(PortalEventType.RESULT_DELETED, raceId, stage.getId(), riderIds[i]);
+                }
+                classificationChanged(stage);
+            }
+        }
+        for (Rider rider : removed) {
+            publish(PortalEventType.RIDER_REMOVED, 0, 0, rider.getId());
+        }
+    }
+
+    /**
+     * Marks the classifications of the stage's race as changed and tells the
+     * event feed. Must not be called while holding the stage's lock.
+     */
+    private void classificationChanged(Stage stage) {
+        Race race = stageRaces.get(stage.getId());
+        race.getClassification().stageChanged(stage);
+        publish(PortalEventType.CLASSIFICATION_CHANGED, race.getId(), stage.getId(), 0);
+    }
+
+    private void publish(PortalEventType type, int raceId, int stageId, int riderId) {
+        PortalEventFeed feed = eventFeed;
+        if (feed != null && !replaying) {
+            feed.publish(type, raceId, stageId, riderId);
+        }
+    }
+
+    /**
+     * Adds the stage to the index of every rider with a result in it.
+     */
+    private void indexResults(Stage stage) {
+        for (int riderId : stage.getRidersRank()) {
+            Rider rider = riders.get(riderId);
+            if (rider != null) {
+                rider.resultRegistered(stage);
+            }
+        }
+    }
+
+    /**
+     * Decodes and indexes the results of stages opened lazily, so that the
+     * riders' indexes are complete. Only needed before removing a rider.
+     */
+    private void indexUnindexedStages() {
+        for (Stage stage : unindexedStages) {
+            indexResults(stage);
+        }
+        unindexedStages.clear();
+    }
+
+    private void rebuildIndexes() {
+        raceIds = sortedIds(races.keySet());
+        teamIds = sortedIds(teams.keySet());
+        for (Team team : teams.values()) {
+            teamNames.put(team.getName(), team);
+        }
         for (Race race : races.values()) {
+            raceNames.put(race.getName(), race);
             for (Stage stage : race.getStages()) {
-                if (stage.getId() == stageId) {
-                    return stage;
+                stagesById.put(stage.getId(), stage);
+                stageRaces.put(stage.getId(), race);
+                race.getClassification().stageChanged(stage);
+                for (int checkpointId : stage.getCheckpointIds()) {
+                    checkpointStages.put(checkpointId, stage);
+                }
+                if (stage.hasDeferredResults()) {
+                    unindexedStages.add(stage);
+                } else {
+                    indexResults(stage);
                 }
             }
         }
-        throw new IDNotRecognisedException("Stage ID not recognised.");
+    }
+
+    /**
+     * Runs the action on every item as a separate task in the pool and waits
+     * for all of them, rethrowing the exception of any that failed.
+     */
+    private static <T> void invokeAll(ForkJoinPool pool, Collection<T> items, Consumer<T> action) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(items.size());
+        for (T item : items) {
+            tasks.add(ForkJoinTask.adapt(() -> action.accept(item)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    /**
+     * Appends an ID, which is larger than every ID already in the array since
+     * IDs are handed out in increasing order.
+     */
+    private static int[] appendId(int[] ids, int id) {
+        int[] appended = Arrays.copyOf(ids, ids.length + 1);
+        appended[ids.length] = id;
+        return appended;
+    }
+
+    private static int[] removeId(int[] ids, int id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0) {
+            return ids;
+        }
+        int[] removed = new int[ids.length - 1];
+        System.arraycopy(ids, 0, removed, 0, index);
+        System.arraycopy(ids, index + 1, removed, index, removed.length - index);
+        return removed;
+    }
+
+    private static int[] sortedIds(Set<Integer> keys) {
+        int[] ids = new int[keys.size()];
+        int count = 0;
+        for (int id : keys) {
+            ids[count++] = id;
+        }
+        Arrays.sort(ids);
+        return ids;
     }
 
     private Rider findRider(int riderId) throws IDNotRecognisedException {
@@ -0,0 +1,624 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * InstrumentedCyclingPortal wraps another {@link CyclingPortal} and records,
+ * for every method, the number of calls, the exceptions they threw by type and
+ * a histogram of their latencies. Recording a call costs a few atomic updates
+ * and allocates nothing, so the wrapper can stay in place under production
+ * load. {@link #getStats()} and {@link #getStatsAndReset()} return the figures
+ * for a monitoring system to scrape.
+ * <p>
+ * The wrapper is as safe for concurrent use as the portal it wraps. Serialising
+ * it writes the wrapped portal in its place, without the figures, which only
+ * describe the current process.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+public class InstrumentedCyclingPortal implements CyclingPortal {
+    private static final long serialVersionUID = 1L;
+
+    private final CyclingPortal delegate;
+    private final transient List<OperationRecorder> recorders = new ArrayList<>();
+    private final transient OperationRecorder getRaceIdsCalls = recorder("getRaceIds");
+    private final transient OperationRecorder createRaceCalls = recorder("createRace");
+    private final transient OperationRecorder viewRaceDetailsCalls = recorder("viewRaceDetails");
+    private final transient OperationRecorder removeRaceByIdCalls = recorder("removeRaceById");
+    private final transient OperationRecorder getNumberOfStagesCalls = recorder("getNumberOfStages");
+    private final transient OperationRecorder addStageToRaceCalls = recorder("addStageToRace");
+    private final transient OperationRecorder getRaceStagesCalls = recorder("getRaceStages");
+    private final transient OperationRecorder getStageLengthCalls = recorder("getStageLength");
+    private final transient OperationRecorder removeStageByIdCalls = recorder("removeStageById");
+    private final transient OperationRecorder addCategorizedClimbToStageCalls = recorder("addCategorizedClimbToStage");
+    private final transient OperationRecorder addIntermediateSprintToStageCalls = recorder("addIntermediateSprintToStage");
+    private final transient OperationRecorder removeCheckpointCalls = recorder("removeCheckpoint");
+    private final transient OperationRecorder concludeStagePreparationCalls = recorder("concludeStagePreparation");
+    private final transient OperationRecorder getStageCheckpointsCalls = recorder("getStageCheckpoints");
+    private final transient OperationRecorder createTeamCalls = recorder("createTeam");
+    private final transient OperationRecorder removeTeamCalls = recorder("removeTeam");
+    private final transient OperationRecorder getTeamsCalls = recorder("getTeams");
+    private final transient OperationRecorder getTeamRidersCalls = recorder("getTeamRiders");
+    private final transient OperationRecorder createRiderCalls = recorder("createRider");
+    private final transient OperationRecorder removeRiderCalls = recorder("removeRider");
+    private final transient OperationRecorder registerRiderResultsInStageCalls = recorder("registerRiderResultsInStage");
+    private final transient OperationRecorder getRiderResultsInStageCalls = recorder("getRiderResultsInStage");
+    private final transient OperationRecorder getRiderAdjustedElapsedTimeInStageCalls = recorder("getRiderAdjustedElapsedTimeInStage");
+    private final transient OperationRecorder deleteRiderResultsInStageCalls = recorder("deleteRiderResultsInStage");
+    private final transient OperationRecorder getRidersRankInStageCalls = recorder("getRidersRankInStage");
+    private final transient OperationRecorder getRankedAdjustedElapsedTimesInStageCalls = recorder("getRankedAdjustedElapsedTimesInStage");
+    private final transient OperationRecorder getRidersPointsInStageCalls = recorder("getRidersPointsInStage");
+    private final transient OperationRecorder getRidersMountainPointsInStageCalls = recorder("getRidersMountainPointsInStage");
+    private final transient OperationRecorder eraseCyclingPortalCalls = recorder("eraseCyclingPortal");
+    private final transient OperationRecorder saveCyclingPortalCalls = recorder("saveCyclingPortal");
+    private final transient OperationRecorder loadCyclingPortalCalls = recorder("loadCyclingPortal");
+    private final transient OperationRecorder removeRaceByNameCalls = recorder("removeRaceByName");
+    private final transient OperationRecorder getRidersGeneralClassificationRankCalls = recorder("getRidersGeneralClassificationRank");
+    private final transient OperationRecorder getGeneralClassificationTimesInRaceCalls = recorder("getGeneralClassificationTimesInRace");
+    private final transient OperationRecorder getRidersPointsInRaceCalls = recorder("getRidersPointsInRace");
+    private final transient OperationRecorder getRidersMountainPointsInRaceCalls = recorder("getRidersMountainPointsInRace");
+    private final transient OperationRecorder getRidersPointClassificationRankCalls = recorder("getRidersPointClassificationRank");
+    private final transient OperationRecorder getRidersMountainPointClassificationRankCalls = recorder("getRidersMountainPointClassificationRank");
+
+    /**
+     * @param delegate The portal every call is passed on to.
+     */
+    public InstrumentedCyclingPortal(CyclingPortal delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Portal cannot be null.");
+        }
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return The figures of every method since creation or the last reset, by
+     *         method name.
+     */
+    public Map<String, OperationStats> getStats() {
+        return stats(false);
+    }
+
+    /**
+     * Returns the figures of every method and starts counting again from zero,
+     * so that successive calls return the figures of successive periods.
+     *
+     * @return The figures of every method since creation or the last reset, by
+     *         method name.
+     */
+    public Map<String, OperationStats> getStatsAndReset() {
+        return stats(true);
+    }
+
+    /**
+     * Discards all figures recorded so far.
+     */
+    public void reset() {
+        stats(true);
+    }
+
+    private Map<String, OperationStats> stats(boolean reset) {
+        Map<String, OperationStats> stats = new LinkedHashMap<>();
+        for (OperationRecorder recorder : recorders) {
+            stats.put(recorder.getName(), recorder.snapshot(reset));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return delegate;
+    }
+
+    private OperationRecorder recorder(String name) {
+        OperationRecorder recorder = new OperationRecorder(name);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    @Override
+    public int[] getRaceIds() {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRaceIds();
+        } catch (Throwable e) {
+            getRaceIdsCalls.recordError(e);
+            throw e;
+        } finally {
+            getRaceIdsCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
+        long start = System.nanoTime();
+        try {
+            return delegate.createRace(name, description);
+        } catch (Throwable e) {
+            createRaceCalls.recordError(e);
+            throw e;
+        } finally {
+            createRaceCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.viewRaceDetails(raceId);
+        } catch (Throwable e) {
+            viewRaceDetailsCalls.recordError(e);
+            throw e;
+        } finally {
+            viewRaceDetailsCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void removeRaceById(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeRaceById(raceId);
+        } catch (Throwable e) {
+            removeRaceByIdCalls.recordError(e);
+            throw e;
+        } finally {
+            removeRaceByIdCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getNumberOfStages(raceId);
+        } catch (Throwable e) {
+            getNumberOfStagesCalls.recordError(e);
+            throw e;
+        } finally {
+            getNumberOfStagesCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int addStageToRace(int raceId, String stageName, String description, double length, LocalDateTime startTime, StageType type)
+            throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
+        long start = System.nanoTime();
+        try {
+            return delegate.addStageToRace(raceId, stageName, description, length, startTime, type);
+        } catch (Throwable e) {
+            addStageToRaceCalls.recordError(e);
+            throw e;
+        } finally {
+            addStageToRaceCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRaceStages(raceId);
+        } catch (Throwable e) {
+            getRaceStagesCalls.recordError(e);
+            throw e;
+        } finally {
+            getRaceStagesCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public double getStageLength(int stageId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getStageLength(stageId);
+        } catch (Throwable e) {
+            getStageLengthCalls.recordError(e);
+            throw e;
+        } finally {
+            getStageLengthCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void removeStageById(int stageId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeStageById(stageId);
+        } catch (Throwable e) {
+            removeStageByIdCalls.recordError(e);
+            throw e;
+        } finally {
+            removeStageByIdCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type, Double averageGradient, Double length)
+            throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
+        long start = System.nanoTime();
+        try {
+            return delegate.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+        } catch (Throwable e) {
+            addCategorizedClimbToStageCalls.recordError(e);
+            throw e;
+        } finally {
+            addCategorizedClimbToStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int addIntermediateSprintToStage(int stageId, double location)
+            throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
+        long start = System.nanoTime();
+        try {
+            return delegate.addIntermediateSprintToStage(stageId, location);
+        } catch (Throwable e) {
+            addIntermediateSprintToStageCalls.recordError(e);
+            throw e;
+        } finally {
+            addIntermediateSprintToStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void removeCheckpoint(int checkpointId) throws IDNotRecognisedException, InvalidStageStateException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeCheckpoint(checkpointId);
+        } catch (Throwable e) {
+            removeCheckpointCalls.recordError(e);
+            throw e;
+        } finally {
+            removeCheckpointCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
+        long start = System.nanoTime();
+        try {
+            delegate.concludeStagePreparation(stageId);
+        } catch (Throwable e) {
+            concludeStagePreparationCalls.recordError(e);
+            throw e;
+        } finally {
+            concludeStagePreparationCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getStageCheckpoints(stageId);
+        } catch (Throwable e) {
+            getStageCheckpointsCalls.recordError(e);
+            throw e;
+        } finally {
+            getStageCheckpointsCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
+        long start = System.nanoTime();
+        try {
+            return delegate.createTeam(name, description);
+        } catch (Throwable e) {
+            createTeamCalls.recordError(e);
+            throw e;
+        } finally {
+            createTeamCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void removeTeam(int teamId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeTeam(teamId);
+        } catch (Throwable e) {
+            removeTeamCalls.recordError(e);
+            throw e;
+        } finally {
+            removeTeamCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getTeams() {
+        long start = System.nanoTime();
+        try {
+            return delegate.getTeams();
+        } catch (Throwable e) {
+            getTeamsCalls.recordError(e);
+            throw e;
+        } finally {
+            getTeamsCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getTeamRiders(teamId);
+        } catch (Throwable e) {
+            getTeamRidersCalls.recordError(e);
+            throw e;
+        } finally {
+            getTeamRidersCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int createRider(int teamID, String name, int yearOfBirth) throws IDNotRecognisedException, IllegalArgumentException {
+        long start = System.nanoTime();
+        try {
+            return delegate.createRider(teamID, name, yearOfBirth);
+        } catch (Throwable e) {
+            createRiderCalls.recordError(e);
+            throw e;
+        } finally {
+            createRiderCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void removeRider(int riderId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeRider(riderId);
+        } catch (Throwable e) {
+            removeRiderCalls.recordError(e);
+            throw e;
+        } finally {
+            removeRiderCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpointTimes)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+        long start = System.nanoTime();
+        try {
+            delegate.registerRiderResultsInStage(stageId, riderId, checkpointTimes);
+        } catch (Throwable e) {
+            registerRiderResultsInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            registerRiderResultsInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRiderResultsInStage(stageId, riderId);
+        } catch (Throwable e) {
+            getRiderResultsInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            getRiderResultsInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRiderAdjustedElapsedTimeInStage(stageId, riderId);
+        } catch (Throwable e) {
+            getRiderAdjustedElapsedTimeInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            getRiderAdjustedElapsedTimeInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            delegate.deleteRiderResultsInStage(stageId, riderId);
+        } catch (Throwable e) {
+            deleteRiderResultsInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            deleteRiderResultsInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersRankInStage(stageId);
+        } catch (Throwable e) {
+            getRidersRankInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersRankInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRankedAdjustedElapsedTimesInStage(stageId);
+        } catch (Throwable e) {
+            getRankedAdjustedElapsedTimesInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            getRankedAdjustedElapsedTimesInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersPointsInStage(stageId);
+        } catch (Throwable e) {
+            getRidersPointsInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersPointsInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersMountainPointsInStage(stageId);
+        } catch (Throwable e) {
+            getRidersMountainPointsInStageCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersMountainPointsInStageCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void eraseCyclingPortal() {
+        long start = System.nanoTime();
+        try {
+            delegate.eraseCyclingPortal();
+        } catch (Throwable e) {
+            eraseCyclingPortalCalls.recordError(e);
+            throw e;
+        } finally {
+            eraseCyclingPortalCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void saveCyclingPortal(String filename) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.saveCyclingPortal(filename);
+        } catch (Throwable e) {
+            saveCyclingPortalCalls.recordError(e);
+            throw e;
+        } finally {
+            saveCyclingPortalCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        try {
+            delegate.loadCyclingPortal(filename);
+        } catch (Throwable e) {
+            loadCyclingPortalCalls.recordError(e);
+            throw e;
+        } finally {
+            loadCyclingPortalCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void removeRaceByName(String name) throws NameNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeRaceByName(name);
+        } catch (Throwable e) {
+            removeRaceByNameCalls.recordError(e);
+            throw e;
+        } finally {
+            removeRaceByNameCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersGeneralClassificationRank(raceId);
+        } catch (Throwable e) {
+            getRidersGeneralClassificationRankCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersGeneralClassificationRankCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public LocalTime[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getGeneralClassificationTimesInRace(raceId);
+        } catch (Throwable e) {
+            getGeneralClassificationTimesInRaceCalls.recordError(e);
+            throw e;
+        } finally {
+            getGeneralClassificationTimesInRaceCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersPointsInRace(raceId);
+        } catch (Throwable e) {
+            getRidersPointsInRaceCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersPointsInRaceCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersMountainPointsInRace(raceId);
+        } catch (Throwable e) {
+            getRidersMountainPointsInRaceCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersMountainPointsInRaceCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersPointClassificationRank(raceId);
+        } catch (Throwable e) {
+            getRidersPointClassificationRankCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersPointClassificationRankCalls.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getRidersMountainPointClassificationRank(raceId);
+        } catch (Throwable e) {
+            getRidersMountainPointClassificationRankCalls.recordError(e);
+            throw e;
+        } finally {
+            getRidersMountainPointClassificationRankCalls.record(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package cycling;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * OperationRecorder counts the calls of one portal operation, the exceptions
+ * they end with and their latencies, without allocating on the calling thread.
+ * <p>
+ * Latencies go into a log-linear histogram: values below 32 ns have a bucket
+ * each, and every power of two above that is split into 32 equal buckets, so a
+ * bucket is never wider than about 3% of the values it holds. Latencies above
+ * 2<sup>40</sup> ns (about 18 minutes) are counted in the last bucket.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class OperationRecorder {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * The exception types counted separately; anything else is counted as the
+     * last entry of {@link #errors}.
+     */
+    static final Class<?>[] ERROR_TYPES = { IDNotRecognisedException.class, IllegalNameException.class,
+            InvalidNameException.class, NameNotRecognisedException.class, InvalidLengthException.class,
+            InvalidLocationException.class, InvalidStageStateException.class, InvalidStageTypeException.class,
+            DuplicatedResultException.class, InvalidCheckpointTimesException.class, IllegalArgumentException.class,
+            IOException.class, ClassNotFoundException.class };
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray errors = new AtomicLongArray(ERROR_TYPES.length + 1);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    OperationRecorder(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(value));
+        totalNanos.addAndGet(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    void recordError(Throwable error) {
+        int index = ERROR_TYPES.length;
+        for (int i = 0; i < ERROR_TYPES.length; i++) {
+            if (ERROR_TYPES[i].isInstance(error)) {
+                index = i;
+                break;
+            }
+        }
+        errors.incrementAndGet(index);
+    }
+
+    /**
+     * Copies the counters into an immutable {@link OperationStats}, optionally
+     * zeroing them. Calls that complete while the copy is taken may be counted
+     * in either the copy or the counters that remain.
+     */
+    OperationStats snapshot(boolean reset) {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+        }
+        long[] errorCounts = new long[ERROR_TYPES.length + 1];
+        for (int i = 0; i < errorCounts.length; i++) {
+            errorCounts[i] = reset ? errors.getAndSet(i, 0) : errors.get(i);
+        }
+        long total = reset ? totalNanos.getAndSet(0) : totalNanos.get();
+        long max = reset ? maxNanos.getAndSet(0) : maxNanos.get();
+        return new OperationStats(name, counts, errorCounts, total, max);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return The largest latency that falls into the bucket.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+}
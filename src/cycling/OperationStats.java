@@ -0,0 +1,119 @@
+package cycling;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * OperationStats holds the calls, errors and latencies recorded for one portal
+ * operation by an {@link InstrumentedCyclingPortal}, as of the moment they
+ * were read. Latency percentiles are accurate to about 3%.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+public class OperationStats {
+    private final String operation;
+    private final long[] buckets;
+    private final long calls;
+    private final Map<String, Long> errors;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    OperationStats(String operation, long[] buckets, long[] errorCounts, long totalNanos, long maxNanos) {
+        this.operation = operation;
+        this.buckets = buckets;
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        this.calls = count;
+        Map<String, Long> errorsByType = new LinkedHashMap<>();
+        for (int i = 0; i < errorCounts.length; i++) {
+            if (errorCounts[i] > 0) {
+                String type = i < OperationRecorder.ERROR_TYPES.length ? OperationRecorder.ERROR_TYPES[i].getSimpleName() : "Other";
+                errorsByType.put(type, errorCounts[i]);
+            }
+        }
+        this.errors = Collections.unmodifiableMap(errorsByType);
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return The name of the portal method.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return The number of calls, including those that threw an exception.
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return The number of calls that threw an exception.
+     */
+    public long getErrorCount() {
+        long count = 0;
+        for (long errorCount : errors.values()) {
+            count += errorCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of calls that threw each type of exception, by the
+     *         exception's simple class name. Types other than the portal's
+     *         exceptions, {@code IllegalArgumentException}, {@code IOException}
+     *         and {@code ClassNotFoundException} are counted as "Other".
+     */
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getMeanNanos() {
+        return calls == 0 ? 0 : (double) totalNanos / calls;
+    }
+
+    /**
+     * @param percentile A percentile between 0 and 100.
+     * @return The latency that at least this percentage of calls did not exceed,
+     *         or 0 if there were no calls.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        if (calls == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * calls));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(OperationRecorder.highestValueOf(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: calls=%d, errors=%s, mean=%.0fns, p50=%dns, p99=%dns, max=%dns", operation, calls, errors,
+                getMeanNanos(), getPercentileNanos(50), getPercentileNanos(99), maxNanos);
+    }
+}
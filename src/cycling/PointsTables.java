@@ -0,0 +1,53 @@
+package cycling;
+
+/**
+ * PointsTables holds the points awarded by position, as primitive lookup arrays
+ * indexed by the ordinal of the stage or checkpoint type.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+final class PointsTables {
+    private static final int[][] FINISH = new int[StageType.values().length][];
+    private static final int[] SPRINT = { 20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
+    private static final int[][] MOUNTAIN = new int[CheckpointType.values().length][];
+
+    static {
+        FINISH[StageType.FLAT.ordinal()] = new int[] { 50, 30, 20, 18, 16, 14, 12, 10, 8, 7, 6, 5, 4, 3, 2 };
+        FINISH[StageType.MEDIUM_MOUNTAIN.ordinal()] = new int[] { 30, 25, 22, 19, 17, 15, 13, 11, 9, 7, 6, 5, 4, 3, 2 };
+        FINISH[StageType.HIGH_MOUNTAIN.ordinal()] = new int[] { 20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
+        FINISH[StageType.TT.ordinal()] = new int[] { 20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
+        MOUNTAIN[CheckpointType.SPRINT.ordinal()] = new int[0];
+        MOUNTAIN[CheckpointType.C4.ordinal()] = new int[] { 1 };
+        MOUNTAIN[CheckpointType.C3.ordinal()] = new int[] { 2, 1 };
+        MOUNTAIN[CheckpointType.C2.ordinal()] = new int[] { 5, 3, 2, 1 };
+        MOUNTAIN[CheckpointType.C1.ordinal()] = new int[] { 10, 8, 6, 4, 2, 1 };
+        MOUNTAIN[CheckpointType.HC.ordinal()] = new int[] { 20, 15, 12, 10, 8, 6, 4, 2 };
+    }
+
+    private PointsTables() {
+    }
+
+    /**
+     * @return The points table for the finish line of a stage of the given type.
+     */
+    static int[] finish(StageType type) {
+        return FINISH[type.ordinal()];
+    }
+
+    /**
+     * @return The points table for an intermediate sprint.
+     */
+    static int[] sprint() {
+        return SPRINT;
+    }
+
+    /**
+     * @return The mountain points table for a checkpoint of the given type, empty
+     *         for intermediate sprints.
+     */
+    static int[] mountain(CheckpointType type) {
+        return MOUNTAIN[type.ordinal()];
+    }
+}
@@ -0,0 +1,179 @@
+package cycling;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PortalEventFeed publishes the changes made to a portal to any number of
+ * independent consumers through a ring buffer allocated up front. Each event is
+ * a few primitive values written into parallel arrays, so publishing and
+ * reading events allocates nothing.
+ * <p>
+ * Publishers are serialised, so the ring has a single writer at a time, and the
+ * writer never waits for consumers: the latency the portal sees does not depend
+ * on how fast they read. A consumer more than a ring's worth of events behind
+ * loses the oldest ones and is told how many through
+ * {@link PortalEventHandler#onEventsLost(long)}.
+ * <p>
+ * Every slot carries the sequence of the event in it. The writer invalidates
+ * the sequence before overwriting a slot and sets it once the slot is complete;
+ * a reader checks it before and after copying the slot, so it never hands out
+ * an event that was overwritten while being read.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+public class PortalEventFeed {
+    private static final PortalEventType[] TYPES = PortalEventType.values();
+    private static final long WRITING = -1;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final byte[] types;
+    private final int[] raceIds;
+    private final int[] stageIds;
+    private final int[] riderIds;
+    private volatile long published = -1;
+
+    /**
+     * @param capacity The number of events the ring holds, rounded up to a
+     *                 power of two.
+     */
+    public PortalEventFeed(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, WRITING);
+        }
+        types = new byte[size];
+        raceIds = new int[size];
+        stageIds = new int[size];
+        riderIds = new int[size];
+    }
+
+    /**
+     * @return The number of events the ring holds.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return The sequence of the last event published, or -1 if there was none.
+     */
+    public long getPublishedSequence() {
+        return published;
+    }
+
+    /**
+     * Starts reading the feed from the next event to be published.
+     *
+     * @return A subscription with its own position in the feed.
+     */
+    public Subscription subscribe() {
+        return new Subscription(published + 1);
+    }
+
+    synchronized void publish(PortalEventType type, int raceId, int stageId, int riderId) {
+        long sequence = published + 1;
+        int slot = (int) sequence & mask;
+        sequences.set(slot, WRITING);
+        VarHandle.storeStoreFence();
+        types[slot] = (byte) type.ordinal();
+        raceIds[slot] = raceId;
+        stageIds[slot] = stageId;
+        riderIds[slot] = riderId;
+        sequences.set(slot, sequence);
+        published = sequence;
+    }
+
+    /**
+     * A consumer's position in the feed. A subscription is meant to be polled
+     * by one thread at a time; subscriptions are independent of each other.
+     */
+    public class Subscription {
+        private long next;
+
+        private Subscription(long next) {
+            this.next = next;
+        }
+
+        /**
+         * @return The sequence of the next event this subscription will read.
+         */
+        public long getNextSequence() {
+            return next;
+        }
+
+        /**
+         * @return The number of published events not read yet, including any
+         *         that have already been overwritten.
+         */
+        public long getBacklog() {
+            return published + 1 - next;
+        }
+
+        /**
+         * Passes the events published since the last poll to the handler, in
+         * order, without waiting for new ones.
+         *
+         * @param handler   Receives the events.
+         * @param maxEvents The largest number of events to read in this call.
+         * @return The number of events passed to the handler.
+         */
+        public int poll(PortalEventHandler handler, int maxEvents) {
+            int read = 0;
+            while (read < maxEvents) {
+                long last = published;
+                if (next > last) {
+                    break;
+                }
+                if (last - next > mask) {
+                    skipTo(handler, last - mask);
+                }
+                int slot = (int) next & mask;
+                if (sequences.get(slot) != next) {
+                    skipOverwritten(handler);
+                    continue;
+                }
+                int type = types[slot];
+                int raceId = raceIds[slot];
+                int stageId = stageIds[slot];
+                int riderId = riderIds[slot];
+                VarHandle.loadLoadFence();
+                if (sequences.get(slot) != next) {
+                    skipOverwritten(handler);
+                    continue;
+                }
+                handler.onEvent(next++, TYPES[type], raceId, stageId, riderId);
+                read++;
+            }
+            return read;
+        }
+
+        /**
+         * Moves on to the next event after finding that the slot of the current
+         * one has been reused. The writer is either still overwriting that slot,
+         * so only the current event is lost, or has already published further
+         * events, of which the ring still holds the last ring's worth.
+         */
+        private void skipOverwritten(PortalEventHandler handler) {
+            skipTo(handler, Math.max(next + 1, published - mask));
+        }
+
+        private void skipTo(PortalEventHandler handler, long oldest) {
+            if (oldest > next) {
+                handler.onEventsLost(oldest - next);
+                next = oldest;
+            }
+        }
+    }
+}
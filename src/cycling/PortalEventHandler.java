@@ -0,0 +1,35 @@
+package cycling;
+
+/**
+ * PortalEventHandler receives the events read from a {@link PortalEventFeed}
+ * subscription. Events are passed as primitive values, so reading them does not
+ * allocate; IDs that do not apply to an event type are 0.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+public interface PortalEventHandler {
+
+    /**
+     * Handles one event.
+     *
+     * @param sequence The position of the event in the feed, one more than the
+     *                 event before it.
+     * @param type     The kind of change.
+     * @param raceId   The race the change belongs to, or 0.
+     * @param stageId  The stage the change belongs to, or 0.
+     * @param riderId  The rider the change concerns, or 0.
+     */
+    void onEvent(long sequence, PortalEventType type, int raceId, int stageId, int riderId);
+
+    /**
+     * Called when the subscription fell so far behind that events were
+     * overwritten before it read them. Reading continues with the oldest event
+     * still held by the feed.
+     *
+     * @param count The number of events that were lost.
+     */
+    default void onEventsLost(long count) {
+    }
+}
@@ -0,0 +1,37 @@
+package cycling;
+
+/**
+ * The kinds of change published on a {@link PortalEventFeed}.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+public enum PortalEventType {
+    /**
+     * A rider's result was registered in a stage.
+     */
+    RESULT_REGISTERED,
+
+    /**
+     * A rider's result was deleted from a stage, directly or because the rider
+     * was removed.
+     */
+    RESULT_DELETED,
+
+    /**
+     * A stage finished its preparation and now waits for results.
+     */
+    STAGE_CONCLUDED,
+
+    /**
+     * A rider was removed, on its own or with its team.
+     */
+    RIDER_REMOVED,
+
+    /**
+     * The results of a stage changed, so the classifications of its race may
+     * have changed. Query the race for the new positions.
+     */
+    CLASSIFICATION_CHANGED;
+}
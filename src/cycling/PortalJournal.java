@@ -0,0 +1,610 @@
+package cycling;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.zip.CRC32;
+
+/**
+ * PortalJournal is an append-only log of the changes made to a portal since its
+ * last snapshot. Every successful mutating call is encoded as one record:
+ * <pre>
+ * length (varint) | CRC-32 of the payload (int) | payload
+ * payload = sequence (varlong) | operation (byte) | arguments
+ * </pre>
+ * using the primitives of {@link SnapshotOutput}. Sequence numbers increase by
+ * one per record and continue across snapshots; a snapshot stores the sequence
+ * of the last record it contains, so replay skips records that are already part
+ * of it.
+ * <p>
+ * Records are made durable by group commit. In synchronous mode a caller returns
+ * once its record has been forced to disk, but one {@code force} covers every
+ * record appended while the previous one was in progress, so concurrent callers
+ * share the cost. With a sync interval, callers do not wait and a background
+ * thread forces the journal periodically, so at most one interval of changes can
+ * be lost in a crash.
+ * <p>
+ * Replay stops at the first incomplete or corrupt record, which is what a crash
+ * in the middle of an append leaves behind.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class PortalJournal implements Closeable {
+    static final int MAGIC = 0x4359434A;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+
+    private static final int CREATE_RACE = 1;
+    private static final int REMOVE_RACE = 2;
+    private static final int ADD_STAGE = 3;
+    private static final int REMOVE_STAGE = 4;
+    private static final int ADD_CLIMB = 5;
+    private static final int ADD_SPRINT = 6;
+    private static final int REMOVE_CHECKPOINT = 7;
+    private static final int CONCLUDE_STAGE_PREPARATION = 8;
+    private static final int CREATE_TEAM = 9;
+    private static final int REMOVE_TEAM = 10;
+    private static final int CREATE_RIDER = 11;
+    private static final int REMOVE_RIDER = 12;
+    private static final int REGISTER_RESULTS = 13;
+    private static final int DELETE_RESULTS = 14;
+    private static final int ERASE_PORTAL = 15;
+
+    /**
+     * Encodes the arguments of one record.
+     */
+    private interface Arguments {
+        void write(SnapshotOutput out) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final long syncIntervalMillis;
+    private final Thread syncer;
+    private final SnapshotOutput record = new SnapshotOutput();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long appendedSequence;
+    private long durableSequence;
+    private boolean syncing;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Creates an empty journal, replacing any existing file.
+     *
+     * @param path               The journal file.
+     * @param sequence           The sequence of the last change already in the
+     *                           snapshot; the first record gets the next one.
+     * @param syncIntervalMillis 0 to force every record before the caller
+     *                           returns, otherwise the period of background syncs.
+     */
+    PortalJournal(Path path, long sequence, long syncIntervalMillis) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.appendedSequence = sequence;
+        this.durableSequence = sequence;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put((byte) VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        if (syncIntervalMillis > 0) {
+            syncer = new Thread(this::syncPeriodically, "cycling-portal-journal");
+            syncer.setDaemon(true);
+            syncer.start();
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * @return The sequence of the last record appended.
+     */
+    synchronized long getSequence() {
+        return appendedSequence;
+    }
+
+    void raceCreated(int raceId, String name, String description) {
+        append(CREATE_RACE, out -> {
+            out.writeVarInt(raceId);
+            out.writeString(name);
+            out.writeString(description);
+        });
+    }
+
+    void raceRemoved(int raceId) {
+        append(REMOVE_RACE, out -> out.writeVarInt(raceId));
+    }
+
+    void stageAdded(int raceId, int stageId, String name, String description, double length, LocalDateTime startTime,
+            StageType type) {
+        append(ADD_STAGE, out -> {
+            out.writeVarInt(raceId);
+            out.writeVarInt(stageId);
+            out.writeString(name);
+            out.writeString(description);
+            out.writeDouble(length);
+            out.writeByte(startTime == null ? 0 : 1);
+            if (startTime != null) {
+                out.writeZigZag(startTime.toLocalDate().toEpochDay());
+                out.writeVarLong(startTime.toLocalTime().toNanoOfDay());
+            }
+            out.writeByte(type == null ? 0 : type.ordinal() + 1);
+        });
+    }
+
+    void stageRemoved(int stageId) {
+        append(REMOVE_STAGE, out -> out.writeVarInt(stageId));
+    }
+
+    void climbAdded(int stageId, int checkpointId, double location, CheckpointType type, Double averageGradient,
+            Double length) {
+        append(ADD_CLIMB, out -> {
+            out.writeVarInt(stageId);
+            out.writeVarInt(checkpointId);
+            out.writeDouble(location);
+            out.writeByte(type == null ? 0 : type.ordinal() + 1);
+            writeNullableDouble(out, averageGradient);
+            writeNullableDouble(out, length);
+        });
+    }
+
+    void sprintAdded(int stageId, int checkpointId, double location) {
+        append(ADD_SPRINT, out -> {
+            out.writeVarInt(stageId);
+            out.writeVarInt(checkpointId);
+            out.writeDouble(location);
+        });
+    }
+
+    void checkpointRemoved(int checkpointId) {
+        append(REMOVE_CHECKPOINT, out -> out.writeVarInt(checkpointId));
+    }
+
+    void stagePreparationConcluded(int stageId) {
+        append(CONCLUDE_STAGE_PREPARATION, out -> out.writeVarInt(stageId));
+    }
+
+    void teamCreated(int teamId, String name, String description) {
+        append(CREATE_TEAM, out -> {
+            out.writeVarInt(teamId);
+            out.writeString(name);
+            out.writeString(description);
+        });
+    }
+
+    void teamRemoved(int teamId) {
+        append(REMOVE_TEAM, out -> out.writeVarInt(teamId));
+    }
+
+    void riderCreated(int teamId, int riderId, String name, int yearOfBirth) {
+        append(CREATE_RIDER, out -> {
+            out.writeVarInt(teamId);
+            out.writeVarInt(riderId);
+            out.writeString(name);
+            out.writeZigZag(yearOfBirth);
+        });
+    }
+
+    void riderRemoved(int riderId) {
+        append(REMOVE_RIDER, out -> out.writeVarInt(riderId));
+    }
+
+    void resultsRegistered(int stageId, int riderId, LocalTime[] checkpointTimes) {
+        resultsRegistered(stageId, new int[] { riderId }, new LocalTime[][] { checkpointTimes });
+    }
+
+    void resultsRegistered(int stageId, int[] riderIds, LocalTime[][] checkpointTimes) {
+        append(REGISTER_RESULTS, out -> {
+            int width = riderIds.length == 0 ? 0 : checkpointTimes[0].length;
+            out.writeVarInt(stageId);
+            out.writeVarInt(riderIds.length);
+            out.writeVarInt(width);
+            for (int row = 0; row < riderIds.length; row++) {
+                out.writeVarInt(riderIds[row]);
+                long previous = 0;
+                for (LocalTime time : checkpointTimes[row]) {
+                    long nanos = time.toNanoOfDay();
+                    out.writeZigZag(nanos - previous);
+                    previous = nanos;
+                }
+            }
+        });
+    }
+
+    /**
+     * Records a batch of results stored as {@code width} nanosecond-of-day times
+     * per rider, laid out row after row.
+     */
+    void resultsRegistered(int stageId, int[] riderIds, long[] times, int count, int width) {
+        append(REGISTER_RESULTS, out -> {
+            out.writeVarInt(stageId);
+            out.writeVarInt(count);
+            out.writeVarInt(width);
+            for (int row = 0; row < count; row++) {
+                out.writeVarInt(riderIds[row]);
+                long previous = 0;
+                for (int column = 0; column < width; column++) {
+                    long nanos = times[row * width + column];
+                    out.writeZigZag(nanos - previous);
+                    previous = nanos;
+                }
+            }
+        });
+    }
+
+    void resultsDeleted(int stageId, int riderId) {
+        append(DELETE_RESULTS, out -> {
+            out.writeVarInt(stageId);
+            out.writeVarInt(riderId);
+        });
+    }
+
+    void portalErased() {
+        append(ERASE_PORTAL, out -> {
+        });
+    }
+
+    /**
+     * Forces every record appended so far to disk.
+     */
+    void sync() throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = appendedSequence;
+        }
+        syncTo(sequence);
+    }
+
+    /**
+     * Forces every record to disk and closes the file. Further changes are not
+     * recorded.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        if (syncer != null) {
+            try {
+                syncer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            syncTo(Long.MAX_VALUE);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void append(int operation, Arguments arguments) {
+        long sequence;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed.");
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Journal is unusable after a failed write.", failure);
+            }
+            sequence = appendedSequence + 1;
+            try {
+                record.reset();
+                record.writeVarLong(sequence);
+                record.writeByte(operation);
+                arguments.write(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ByteBuffer payload = record.contents();
+            crc.reset();
+            crc.update(payload.duplicate());
+            ensurePending(payload.remaining() + 9);
+            putVarInt(pending, payload.remaining());
+            pending.putInt((int) crc.getValue());
+            pending.put(payload);
+            appendedSequence = sequence;
+        }
+        if (syncIntervalMillis == 0) {
+            try {
+                syncTo(sequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns once the record with the given sequence is on disk. A caller
+     * that finds no sync in progress writes and forces everything pending,
+     * including the records of the callers waiting behind it.
+     */
+    private void syncTo(long sequence) throws IOException {
+        ByteBuffer batch;
+        long batchSequence;
+        synchronized (this) {
+            while (syncing && durableSequence < sequence) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the journal.", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (durableSequence >= Math.min(sequence, appendedSequence)) {
+                return;
+            }
+            syncing = true;
+            batch = pending;
+            batchSequence = appendedSequence;
+            pending = spare;
+        }
+        IOException error = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            batch.clear();
+            spare = batch;
+            syncing = false;
+            if (error == null) {
+                durableSequence = batchSequence;
+            } else {
+                failure = error;
+            }
+            notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void syncPeriodically() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    if (!closed) {
+                        wait(syncIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed || failure != null) {
+                    return;
+                }
+            }
+            try {
+                sync();
+            } catch (IOException e) {
+                // Recorded as the journal's failure and reported to the next caller.
+            }
+        }
+    }
+
+    private void ensurePending(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static void writeNullableDouble(SnapshotOutput out, Double value) throws IOException {
+        out.writeByte(value == null ? 0 : 1);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * Applies the records of a journal file that come after the given sequence
+     * to the portal, through its public methods.
+     *
+     * @return The sequence of the last record applied, or {@code sequence} if
+     *         there was none.
+     * @throws IOException If the file is not a journal or a record cannot be
+     *                     applied, e.g. because the journal belongs to a
+     *                     different snapshot.
+     */
+    static long replay(Path path, long sequence, CyclingPortalImpl portal) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < HEADER_SIZE) {
+            return sequence;
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a cycling portal journal.");
+        }
+        int version = buffer.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported journal version " + version + ".");
+        }
+        SnapshotInput in = new SnapshotInput(buffer);
+        CRC32 crc = new CRC32();
+        while (buffer.hasRemaining()) {
+            int length;
+            int checksum;
+            try {
+                length = in.readVarInt();
+                checksum = in.readInt();
+            } catch (IOException e) {
+                break; // torn header of the last record
+            }
+            if (length > buffer.remaining()) {
+                break; // torn payload of the last record
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            SnapshotInput record = new SnapshotInput(payload);
+            long recordSequence = record.readVarLong();
+            if (recordSequence <= sequence) {
+                continue;
+            }
+            if (recordSequence != sequence + 1) {
+                throw new IOException("Journal is missing change " + (sequence + 1) + ".");
+            }
+            try {
+                apply(record, portal);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Journal change " + recordSequence + " could not be replayed.", e);
+            }
+            sequence = recordSequence;
+        }
+        return sequence;
+    }
+
+    /**
+     * Applies one record. Any exception the portal throws means the record does
+     * not fit the state it is replayed onto.
+     */
+    private static void apply(SnapshotInput in, CyclingPortalImpl portal) throws Exception {
+        int operation = in.readByte();
+        switch (operation) {
+        case CREATE_RACE: {
+            int id = in.readVarInt();
+            expectId(id, portal.createRace(in.readString(), in.readString()));
+            break;
+        }
+        case REMOVE_RACE:
+            portal.removeRaceById(in.readVarInt());
+            break;
+        case ADD_STAGE: {
+            int raceId = in.readVarInt();
+            int id = in.readVarInt();
+            String name = in.readString();
+            String description = in.readString();
+            double length = in.readDouble();
+            LocalDateTime startTime = null;
+            if (in.readByte() != 0) {
+                startTime = LocalDateTime.of(LocalDate.ofEpochDay(in.readZigZag()), LocalTime.ofNanoOfDay(in.readVarLong()));
+            }
+            StageType type = optionalEnum(StageType.values(), in.readByte());
+            expectId(id, portal.addStageToRace(raceId, name, description, length, startTime, type));
+            break;
+        }
+        case REMOVE_STAGE:
+            portal.removeStageById(in.readVarInt());
+            break;
+        case ADD_CLIMB: {
+            int stageId = in.readVarInt();
+            int id = in.readVarInt();
+            double location = in.readDouble();
+            CheckpointType type = optionalEnum(CheckpointType.values(), in.readByte());
+            Double averageGradient = in.readByte() == 0 ? null : in.readDouble();
+            Double length = in.readByte() == 0 ? null : in.readDouble();
+            expectId(id, portal.addCategorizedClimbToStage(stageId, location, type, averageGradient, length));
+            break;
+        }
+        case ADD_SPRINT: {
+            int stageId = in.readVarInt();
+            int id = in.readVarInt();
+            expectId(id, portal.addIntermediateSprintToStage(stageId, in.readDouble()));
+            break;
+        }
+        case REMOVE_CHECKPOINT:
+            portal.removeCheckpoint(in.readVarInt());
+            break;
+        case CONCLUDE_STAGE_PREPARATION:
+            portal.concludeStagePreparation(in.readVarInt());
+            break;
+        case CREATE_TEAM: {
+            int id = in.readVarInt();
+            expectId(id, portal.createTeam(in.readString(), in.readString()));
+            break;
+        }
+        case REMOVE_TEAM:
+            portal.removeTeam(in.readVarInt());
+            break;
+        case CREATE_RIDER: {
+            int teamId = in.readVarInt();
+            int id = in.readVarInt();
+            expectId(id, portal.createRider(teamId, in.readString(), (int) in.readZigZag()));
+            break;
+        }
+        case REMOVE_RIDER:
+            portal.removeRider(in.readVarInt());
+            break;
+        case REGISTER_RESULTS: {
+            int stageId = in.readVarInt();
+            int count = in.readVarInt();
+            int width = in.readVarInt();
+            int[] riderIds = new int[count];
+            LocalTime[][] checkpointTimes = new LocalTime[count][width];
+            for (int row = 0; row < count; row++) {
+                riderIds[row] = in.readVarInt();
+                long nanos = 0;
+                for (int column = 0; column < width; column++) {
+                    nanos += in.readZigZag();
+                    checkpointTimes[row][column] = LocalTime.ofNanoOfDay(nanos);
+                }
+            }
+            portal.registerRiderResultsInStage(stageId, riderIds, checkpointTimes);
+            break;
+        }
+        case DELETE_RESULTS:
+            portal.deleteRiderResultsInStage(in.readVarInt(), in.readVarInt());
+            break;
+        case ERASE_PORTAL:
+            portal.eraseCyclingPortal();
+            break;
+        default:
+            throw new IOException("Corrupt journal: unknown operation " + operation + ".");
+        }
+    }
+
+    private static void expectId(int recorded, int assigned) throws IOException {
+        if (recorded != assigned) {
+            throw new IOException("Journal does not match the snapshot: expected ID " + recorded + " but got " + assigned + ".");
+        }
+    }
+
+    private static <E> E optionalEnum(E[] values, int ordinalPlusOne) throws IOException {
+        if (ordinalPlusOne > values.length) {
+            throw new IOException("Corrupt journal: unknown type " + ordinalPlusOne + ".");
+        }
+        return ordinalPlusOne == 0 ? null : values[ordinalPlusOne - 1];
+    }
+}
@@ -0,0 +1,342 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * PortalSnapshot reads and writes the binary snapshot format used by
+ * {@link CyclingPortalImpl#saveCyclingPortal(String)}.
+ * <p>
+ * The layout, after a magic number and a format version, is:
+ * <ul>
+ * <li>the five ID counters (race, team, rider, stage, checkpoint);</li>
+ * <li>the sequence of the last {@link PortalJournal} record the snapshot
+ * contains (from version 2);</li>
+ * <li>every team with its riders;</li>
+ * <li>every race with its stages, and every stage with its checkpoints and a
+ * length-prefixed block of results.</li>
+ * </ul>
+ * Integers are varints, strings are length-prefixed UTF-8 and each result row
+ * stores the rider ID as a delta from the previous row, the start time in
+ * nanoseconds of the day and every later time as a delta from the time before
+ * it. A stage's type is stored as its ordinal plus one, or 0 when it has none
+ * (from version 3; earlier versions store the ordinal). Because results blocks are length-prefixed a reader can skip them, which
+ * {@link #map(Path)} uses to leave every stage's results undecoded until the
+ * stage is first used.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class PortalSnapshot {
+    static final int MAGIC = 0x43594350;
+    static final int VERSION = 3;
+
+    final int[] counters;
+    long journalSequence;
+    final List<Team> teams = new ArrayList<>();
+    final List<Race> races = new ArrayList<>();
+
+    private PortalSnapshot(int[] counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file next to {@code path} and then moves
+     * it into place, so an existing snapshot is never left half-written.
+     */
+    static void write(Path path, int[] counters, long journalSequence, Collection<Team> teams, Collection<Race> races)
+            throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SnapshotOutput out = new SnapshotOutput(channel);
+            out.writeInt(MAGIC);
+            out.writeVarInt(VERSION);
+            for (int counter : counters) {
+                out.writeVarInt(counter);
+            }
+            out.writeVarLong(journalSequence);
+            List<Team> sortedTeams = new ArrayList<>(teams);
+            sortedTeams.sort(Comparator.comparingInt(Team::getId));
+            out.writeVarInt(sortedTeams.size());
+            for (Team team : sortedTeams) {
+                writeTeam(out, team);
+            }
+            List<Race> sortedRaces = new ArrayList<>(races);
+            sortedRaces.sort(Comparator.comparingInt(Race::getId));
+            out.writeVarInt(sortedRaces.size());
+            for (Race race : sortedRaces) {
+                writeRace(out, race);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static PortalSnapshot read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large.");
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the buffer is full
+            }
+            buffer.flip();
+        }
+        return read(new SnapshotInput(buffer), false);
+    }
+
+    /**
+     * Memory-maps a snapshot and decodes everything but the results of its
+     * stages, which stay in the mapped file until each stage is first used.
+     */
+    static PortalSnapshot map(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return read(new SnapshotInput(buffer), true);
+    }
+
+    static PortalSnapshot read(SnapshotInput in, boolean deferResults) throws IOException {
+        int version = readHeader(in);
+        int[] counters = new int[5];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = in.readVarInt();
+        }
+        PortalSnapshot snapshot = new PortalSnapshot(counters);
+        if (version >= 2) {
+            snapshot.journalSequence = in.readVarLong();
+        }
+        int teamCount = in.readVarInt();
+        for (int i = 0; i < teamCount; i++) {
+            snapshot.teams.add(readTeam(in));
+        }
+        int raceCount = in.readVarInt();
+        for (int i = 0; i < raceCount; i++) {
+            snapshot.races.add(readRace(in, version, deferResults));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Checks the magic number and returns the format version, rejecting
+     * versions newer than this reader.
+     */
+    static int readHeader(SnapshotInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a cycling portal snapshot.");
+        }
+        int version = in.readVarInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ".");
+        }
+        return version;
+    }
+
+    private static void writeTeam(SnapshotOutput out, Team team) throws IOException {
+        out.writeVarInt(team.getId());
+        out.writeString(team.getName());
+        out.writeString(team.getDescription());
+        List<Rider> riders = team.getRiders();
+        out.writeVarInt(riders.size());
+        for (Rider rider : riders) {
+            out.writeVarInt(rider.getId());
+            out.writeString(rider.getName());
+            out.writeZigZag(rider.getYearOfBirth());
+        }
+    }
+
+    private static Team readTeam(SnapshotInput in) throws IOException {
+        Team team = new Team(in.readVarInt(), in.readString(), in.readString());
+        int riderCount = in.readVarInt();
+        for (int i = 0; i < riderCount; i++) {
+            team.addRider(new Rider(in.readVarInt(), in.readString(), (int) in.readZigZag(), team));
+        }
+        return team;
+    }
+
+    private static void writeRace(SnapshotOutput out, Race race) throws IOException {
+        out.writeVarInt(race.getId());
+        out.writeString(race.getName());
+        out.writeString(race.getDescription());
+        List<Stage> stages = race.getStages();
+        out.writeVarInt(stages.size());
+        for (Stage stage : stages) {
+            writeStage(out, stage);
+        }
+    }
+
+    private static Race readRace(SnapshotInput in, int version, boolean deferResults) throws IOException {
+        Race race = new Race(in.readVarInt(), in.readString(), in.readString());
+        int stageCount = in.readVarInt();
+        for (int i = 0; i < stageCount; i++) {
+            race.addStage(readStage(in, version, deferResults));
+        }
+        return race;
+    }
+
+    private static void writeStage(SnapshotOutput out, Stage stage) throws IOException {
+        out.writeVarInt(stage.getId());
+        out.writeString(stage.getName());
+        out.writeString(stage.getDescription());
+        out.writeDouble(stage.getLength());
+        LocalDateTime startTime = stage.getStartTime();
+        out.writeByte(startTime == null ? 0 : 1);
+        if (startTime != null) {
+            out.writeZigZag(startTime.toLocalDate().toEpochDay());
+            out.writeVarLong(startTime.toLocalTime().toNanoOfDay());
+        }
+        StageType type = stage.getType();
+        out.writeByte(type == null ? 0 : type.ordinal() + 1);
+        out.writeByte(stage.isWaitingForResults() ? 1 : 0);
+        List<Checkpoint> checkpoints = stage.getCheckpoints();
+        out.writeVarInt(checkpoints.size());
+        for (Checkpoint checkpoint : checkpoints) {
+            out.writeVarInt(checkpoint.getId());
+            out.writeDouble(checkpoint.getLocation());
+            out.writeByte(checkpoint.getType().ordinal());
+            writeNullableDouble(out, checkpoint.getAverageGradient());
+            writeNullableDouble(out, checkpoint.getLength());
+        }
+        SnapshotOutput block = new SnapshotOutput();
+        writeResults(block, stage.getResultStore());
+        out.writeBlock(block);
+    }
+
+    private static Stage readStage(SnapshotInput in, int version, boolean deferResults) throws IOException {
+        int id = in.readVarInt();
+        String name = in.readString();
+        String description = in.readString();
+        double length = in.readDouble();
+        LocalDateTime startTime = null;
+        if (in.readByte() != 0) {
+            long epochDay = in.readZigZag();
+            long nanoOfDay = in.readVarLong();
+            try {
+                startTime = LocalDateTime.of(LocalDate.ofEpochDay(epochDay), LocalTime.ofNanoOfDay(nanoOfDay));
+            } catch (DateTimeException e) {
+                throw new IOException("Corrupt snapshot: invalid stage start time.", e);
+            }
+        }
+        // Stages without a type could not be written before version 3.
+        StageType type = version >= 3 ? optionalEnumAt(StageType.values(), in.readByte()) : enumAt(StageType.values(), in.readByte());
+        boolean waitingForResults = in.readByte() != 0;
+        Stage stage = new Stage(id, name, description, length, startTime, type);
+        int checkpointCount = in.readVarInt();
+        for (int i = 0; i < checkpointCount; i++) {
+            int checkpointId = in.readVarInt();
+            double location = in.readDouble();
+            CheckpointType checkpointType = enumAt(CheckpointType.values(), in.readByte());
+            Double averageGradient = readNullableDouble(in);
+            Double climbLength = readNullableDouble(in);
+            stage.addCheckpoint(new Checkpoint(checkpointId, location, checkpointType, averageGradient, climbLength));
+        }
+        if (waitingForResults) {
+            stage.setWaitingForResults(true);
+        }
+        if (deferResults) {
+            stage.deferResults(in.readBlock());
+        } else {
+            in.readVarInt(); // results block length, only needed to skip the block
+            readResults(in, stage);
+        }
+        return stage;
+    }
+
+    private static void writeResults(SnapshotOutput out, StageResults results) throws IOException {
+        int count = results.size();
+        int width = results.width();
+        out.writeVarInt(count);
+        out.writeVarInt(width);
+        int previousRider = 0;
+        for (int slot = 0; slot < count; slot++) {
+            int riderId = results.riderAt(slot);
+            out.writeZigZag((long) riderId - previousRider);
+            previousRider = riderId;
+            long previous = results.timeAt(slot, 0);
+            out.writeVarLong(previous);
+            for (int column = 1; column < width; column++) {
+                long time = results.timeAt(slot, column);
+                out.writeZigZag(time - previous);
+                previous = time;
+            }
+        }
+    }
+
+    /**
+     * Decodes a results block, positioned after its length prefix, into the stage.
+     */
+    static void readResults(SnapshotInput in, Stage stage) throws IOException {
+        int count = in.readVarInt();
+        int width = in.readVarInt();
+        if (count == 0) {
+            return;
+        }
+        if (!stage.isWaitingForResults() || width != stage.getResultWidth()) {
+            throw new IOException("Corrupt snapshot: results do not match stage " + stage.getId() + ".");
+        }
+        int[] riderIds = new int[count];
+        long[] times = new long[count * width];
+        long previousRider = 0;
+        for (int row = 0; row < count; row++) {
+            previousRider += in.readZigZag();
+            riderIds[row] = (int) previousRider;
+            long time = in.readVarLong();
+            times[row * width] = time;
+            for (int column = 1; column < width; column++) {
+                time += in.readZigZag();
+                times[row * width + column] = time;
+            }
+        }
+        try {
+            stage.registerRiderResults(riderIds, times, count);
+        } catch (DuplicatedResultException | InvalidStageStateException e) {
+            throw new IOException("Corrupt snapshot: invalid results for stage " + stage.getId() + ".", e);
+        }
+    }
+
+    private static void writeNullableDouble(SnapshotOutput out, Double value) throws IOException {
+        out.writeByte(value == null ? 0 : 1);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readNullableDouble(SnapshotInput in) throws IOException {
+        return in.readByte() == 0 ? null : in.readDouble();
+    }
+
+    private static <E> E enumAt(E[] values, int ordinal) throws IOException {
+        if (ordinal >= values.length) {
+            throw new IOException("Corrupt snapshot: unknown type " + ordinal + ".");
+        }
+        return values[ordinal];
+    }
+
+    private static <E> E optionalEnumAt(E[] values, int ordinalPlusOne) throws IOException {
+        return ordinalPlusOne == 0 ? null : enumAt(values, ordinalPlusOne - 1);
+    }
+}
@@ -7,6 +7,9 @@ public class Race {
     private String name;
     private String description;
     private List<Stage> stages = new ArrayList<>();
+    private Map<String, Stage> stagesByName = new HashMap<>();
+    private int[] stageIds = new int[0];
+    private RaceClassification classification = new RaceClassification();
 
     public Race(int id, String name, String description) {
         this.id = id;
@@ -26,19 +29,56 @@ public class Race {
         return description;
     }
 
+    RaceClassification getClassification() {
+        return classification;
+    }
+
     public List<Stage> getStages() {
         return stages;
     }
 
-    public void addStage(Stage stage) {
+    public synchronized int getNumberOfStages() {
+        return stages.size();
+    }
+
+    /**
+     * @return A copy of the stage IDs in the order the stages were added. The
+     *         array is rebuilt only after the stages change.
+     */
+    public synchronized int[] getStageIds() {
+        if (stageIds == null) {
+            stageIds = new int[stages.size()];
+            for (int i = 0; i < stageIds.length; i++) {
+                stageIds[i] = stages.get(i).getId();
+            }
+        }
+        return stageIds.clone();
+    }
+
+    public synchronized void addStage(Stage stage) {
         stages.add(stage);
+        stagesByName.put(stage.getName(), stage);
+        stageIds = null;
+        classification.stageAdded(stage);
+    }
+
+    public synchronized boolean removeStageById(int stageId) {
+        Stage stage = getStageById(stageId);
+        if (stage == null) {
+            return false;
+        }
+        stages.remove(stage);
+        stagesByName.remove(stage.getName());
+        stageIds = null;
+        classification.stageRemoved(stage);
+        return true;
     }
 
-    public boolean removeStageById(int stageId) {
-        return stages.removeIf(stage -> stage.getId() == stageId);
+    public synchronized Stage getStageByName(String name) {
+        return stagesByName.get(name);
     }
 
-    public Stage getStageById(int stageId) {
+    public synchronized Stage getStageById(int stageId) {
         for (Stage stage : stages) {
             if (stage.getId() == stageId) {
                 return stage;
@@ -48,7 +88,7 @@ public class Race {
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         double totalLength = stages.stream().mapToDouble(Stage::getLength).sum();
         return String.format("Race ID: %d, Name: %s, Description: %s, Number of Stages: %d, Total Length: %.2f km",
                 id, name, description, stages.size(), totalLength);
@@ -0,0 +1,357 @@
+package cycling;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RaceClassification keeps each rider's cumulative adjusted elapsed time and
+ * points across the stages of a race.
+ * <p>
+ * When the results of a stage change the stage is only marked as dirty. The next
+ * query takes the stage's previously applied {@link StageSnapshot} out of the
+ * totals and adds its current one, so the cost of an update is proportional to
+ * the riders of the changed stage, not to the whole race. Totals are kept in
+ * nanoseconds so they may exceed 24 hours.
+ * <p>
+ * The classification also keeps the general classification as it stood after
+ * each stage, with the stages in chronological order: entry k holds the riders
+ * ranked by their cumulative time over stages 0 to k. Entries are computed on
+ * demand, each from the one before it, and a change to stage k only makes
+ * entries k onwards stale, so correcting a late stage does not recompute the
+ * early ones.
+ * <p>
+ * All access is synchronised on the classification. A refresh locks each dirty
+ * stage in turn while taking its snapshot; stages never call back into the
+ * classification, so the lock order is always classification, then stage.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class RaceClassification {
+    private final IntIntHashMap slots = new IntIntHashMap();
+    private int[] riderIds = new int[16];
+    private long[] totalNanos = new long[16];
+    private int[] totalPoints = new int[16];
+    private int[] totalMountainPoints = new int[16];
+    private int[] stageCounts = new int[16];
+    private int size;
+
+    private final Map<Stage, StageSnapshot> applied = new IdentityHashMap<>();
+    private final Map<Stage, Boolean> dirty = new IdentityHashMap<>();
+
+    private int[] rankedRiders;
+    private long[] rankedNanos;
+    private int[] pointsRankedRiders;
+    private int[] mountainRankedRiders;
+
+    // Stages by start time, those without one last, each group in the order added.
+    private final List<Stage> chronological = new ArrayList<>();
+    private int[][] historyRiders = new int[0][];
+    private long[][] historyNanos = new long[0][];
+    // The number of leading history entries that are up to date.
+    private int historyValid;
+
+    synchronized void stageAdded(Stage stage) {
+        LocalDateTime startTime = stage.getStartTime();
+        int index = chronological.size();
+        if (startTime != null) {
+            while (index > 0 && (chronological.get(index - 1).getStartTime() == null
+                    || chronological.get(index - 1).getStartTime().isAfter(startTime))) {
+                index--;
+            }
+        }
+        chronological.add(index, stage);
+        historyValid = Math.min(historyValid, index);
+    }
+
+    synchronized void stageChanged(Stage stage) {
+        dirty.put(stage, Boolean.TRUE);
+        historyChanged(stage);
+    }
+
+    synchronized void stageRemoved(Stage stage) {
+        historyChanged(stage);
+        chronological.remove(stage);
+        dirty.remove(stage);
+        StageSnapshot previous = applied.remove(stage);
+        if (previous != null) {
+            apply(previous, -1);
+            invalidate();
+        }
+    }
+
+    /**
+     * Discards the totals and builds them again from the current snapshots of
+     * the given stages, then ranks every classification, so later queries only
+     * copy the results. The snapshots should already have been taken, so that
+     * only the aggregation runs under the classification's lock.
+     */
+    synchronized void rebuild(List<Stage> stages) {
+        slots.clear();
+        size = 0;
+        applied.clear();
+        dirty.clear();
+        for (Stage stage : stages) {
+            StageSnapshot current = stage.getSnapshot();
+            apply(current, 1);
+            applied.put(stage, current);
+        }
+        invalidate();
+        refresh();
+        pointsRankedRiders = rankByDescending(totalPoints);
+        mountainRankedRiders = rankByDescending(totalMountainPoints);
+        historyValid = 0;
+        refreshHistory(chronological.size() - 1);
+    }
+
+    synchronized int[] getRidersRank() {
+        refresh();
+        return rankedRiders.clone();
+    }
+
+    synchronized long[] getRankedTotalNanos() {
+        refresh();
+        return rankedNanos.clone();
+    }
+
+    synchronized int[] getRankedPoints() {
+        refresh();
+        return collect(totalPoints, rankedRiders);
+    }
+
+    synchronized int[] getRankedMountainPoints() {
+        refresh();
+        return collect(totalMountainPoints, rankedRiders);
+    }
+
+    synchronized int[] getPointsRank() {
+        refresh();
+        if (pointsRankedRiders == null) {
+            pointsRankedRiders = rankByDescending(totalPoints);
+        }
+        return pointsRankedRiders.clone();
+    }
+
+    synchronized int[] getMountainPointsRank() {
+        refresh();
+        if (mountainRankedRiders == null) {
+            mountainRankedRiders = rankByDescending(totalMountainPoints);
+        }
+        return mountainRankedRiders.clone();
+    }
+
+    /**
+     * @return The IDs of the race's stages in chronological order.
+     */
+    synchronized int[] getChronologicalStageIds() {
+        int[] stageIds = new int[chronological.size()];
+        for (int i = 0; i < stageIds.length; i++) {
+            stageIds[i] = chronological.get(i).getId();
+        }
+        return stageIds;
+    }
+
+    /**
+     * @return The riders ranked by their cumulative adjusted elapsed time over
+     *         the first {@code index + 1} stages in chronological order.
+     */
+    synchronized int[] getRidersRankAfter(int index) {
+        refreshHistory(index);
+        return historyRiders[index].clone();
+    }
+
+    /**
+     * @return The cumulative times of the riders of
+     *         {@link #getRidersRankAfter(int)}, in the same order.
+     */
+    synchronized long[] getRankedTotalNanosAfter(int index) {
+        refreshHistory(index);
+        return historyNanos[index].clone();
+    }
+
+    /**
+     * @return The leader of the general classification after each stage in
+     *         chronological order, or 0 where no rider had a result yet.
+     */
+    synchronized int[] getLeaders() {
+        refreshHistory(chronological.size() - 1);
+        int[] leaders = new int[chronological.size()];
+        for (int i = 0; i < leaders.length; i++) {
+            leaders[i] = historyRiders[i].length == 0 ? 0 : historyRiders[i][0];
+        }
+        return leaders;
+    }
+
+    synchronized int getNumberOfStages() {
+        return chronological.size();
+    }
+
+    private void historyChanged(Stage stage) {
+        int index = chronological.indexOf(stage);
+        if (index >= 0) {
+            historyValid = Math.min(historyValid, index);
+        }
+    }
+
+    /**
+     * Brings the history entries up to {@code last} up to date, starting from
+     * the cumulative totals of the last entry that still is.
+     */
+    private void refreshHistory(int last) {
+        int count = chronological.size();
+        if (historyRiders.length != count) {
+            historyRiders = Arrays.copyOf(historyRiders, count);
+            historyNanos = Arrays.copyOf(historyNanos, count);
+        }
+        if (historyValid > last) {
+            return;
+        }
+        IntIntHashMap cumulativeSlots = new IntIntHashMap();
+        int[] ids;
+        long[] totals;
+        int size = 0;
+        if (historyValid == 0) {
+            ids = new int[16];
+            totals = new long[16];
+        } else {
+            int[] previousRiders = historyRiders[historyValid - 1];
+            size = previousRiders.length;
+            ids = Arrays.copyOf(previousRiders, Math.max(16, size));
+            totals = Arrays.copyOf(historyNanos[historyValid - 1], ids.length);
+            for (int i = 0; i < size; i++) {
+                cumulativeSlots.put(ids[i], i);
+            }
+        }
+        for (int index = historyValid; index <= last; index++) {
+            StageSnapshot snapshot = chronological.get(index).getSnapshot();
+            for (int i = 0; i < snapshot.size(); i++) {
+                int riderId = snapshot.riderIds[i];
+                int slot = cumulativeSlots.get(riderId, -1);
+                if (slot < 0) {
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, size * 2);
+                        totals = Arrays.copyOf(totals, size * 2);
+                    }
+                    slot = size++;
+                    ids[slot] = riderId;
+                    totals[slot] = 0;
+                    cumulativeSlots.put(riderId, slot);
+                }
+                totals[slot] += snapshot.adjustedNanos[i];
+            }
+            int[] ranked = Arrays.copyOf(ids, size);
+            long[] rankedTotals = Arrays.copyOf(totals, size);
+            StageRanking.sort(ranked, rankedTotals, size);
+            historyRiders[index] = ranked;
+            historyNanos[index] = rankedTotals;
+        }
+        historyValid = last + 1;
+    }
+
+    private void refresh() {
+        if (!dirty.isEmpty()) {
+            for (Stage stage : dirty.keySet()) {
+                StageSnapshot previous = applied.get(stage);
+                if (previous != null) {
+                    apply(previous, -1);
+                }
+                StageSnapshot current = stage.getSnapshot();
+                apply(current, 1);
+                applied.put(stage, current);
+            }
+            dirty.clear();
+            invalidate();
+        }
+        if (rankedRiders == null) {
+            int[] ids = Arrays.copyOf(riderIds, size);
+            long[] keys = Arrays.copyOf(totalNanos, size);
+            StageRanking.sort(ids, keys, size);
+            rankedRiders = ids;
+            rankedNanos = keys;
+        }
+    }
+
+    private void apply(StageSnapshot snapshot, int sign) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            int slot = slotFor(snapshot.riderIds[i]);
+            totalNanos[slot] += sign * snapshot.adjustedNanos[i];
+            totalPoints[slot] += sign * snapshot.points[i];
+            totalMountainPoints[slot] += sign * snapshot.mountainPoints[i];
+            stageCounts[slot] += sign;
+            if (stageCounts[slot] == 0) {
+                release(slot);
+            }
+        }
+    }
+
+    private int slotFor(int riderId) {
+        int slot = slots.get(riderId, -1);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (size == riderIds.length) {
+            int capacity = size * 2;
+            riderIds = Arrays.copyOf(riderIds, capacity);
+            totalNanos = Arrays.copyOf(totalNanos, capacity);
+            totalPoints = Arrays.copyOf(totalPoints, capacity);
+            totalMountainPoints = Arrays.copyOf(totalMountainPoints, capacity);
+            stageCounts = Arrays.copyOf(stageCounts, capacity);
+        }
+        slot = size++;
+        riderIds[slot] = riderId;
+        totalNanos[slot] = 0;
+        totalPoints[slot] = 0;
+        totalMountainPoints[slot] = 0;
+        stageCounts[slot] = 0;
+        slots.put(riderId, slot);
+        return slot;
+    }
+
+    private void release(int slot) {
+        slots.remove(riderIds[slot]);
+        int last = --size;
+        if (slot != last) {
+            riderIds[slot] = riderIds[last];
+            totalNanos[slot] = totalNanos[last];
+            totalPoints[slot] = totalPoints[last];
+            totalMountainPoints[slot] = totalMountainPoints[last];
+            stageCounts[slot] = stageCounts[last];
+            slots.put(riderIds[slot], slot);
+        }
+    }
+
+    private int[] collect(int[] values, int[] ranked) {
+        int[] result = new int[ranked.length];
+        for (int i = 0; i < ranked.length; i++) {
+            result[i] = values[slots.get(ranked[i], -1)];
+        }
+        return result;
+    }
+
+    /**
+     * Orders riders by descending value, breaking ties by general classification
+     * position.
+     */
+    private int[] rankByDescending(int[] values) {
+        int count = rankedRiders.length;
+        int[] ids = rankedRiders.clone();
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) -values[slots.get(ids[i], -1)] << 32) | i;
+        }
+        StageRanking.sort(ids, keys, count);
+        return ids;
+    }
+
+    private void invalidate() {
+        rankedRiders = null;
+        rankedNanos = null;
+        pointsRankedRiders = null;
+        mountainRankedRiders = null;
+    }
+}
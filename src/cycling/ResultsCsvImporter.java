@@ -0,0 +1,260 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+
+/**
+ * ResultsCsvImporter registers a finish sheet of stage results straight from a
+ * CSV file. The file is memory-mapped and every row is parsed from bytes into
+ * nanosecond-of-day values, with no String or LocalTime created for accepted
+ * rows. Rows are applied to the stage in large batches.
+ * <p>
+ * Each row holds a rider ID followed by the start time, the time at every
+ * checkpoint and the finish time, e.g. {@code 17,10:00:00,11:02:13.250,13:45:07}.
+ * Times are {@code H:MM:SS} or {@code HH:MM:SS} with an optional fraction of up to
+ * nine digits. Blank lines and a non-numeric header line are skipped. Rejected
+ * rows are recorded in the {@link ResultsImportReport} and do not stop the import.
+ * <p>
+ * The caller must hold the stage's lock for the whole import, so no other result
+ * can be registered between validating a row and applying it. When a journal is
+ * given, every batch is recorded in it once applied; when an event feed is given,
+ * a {@link PortalEventType#RESULT_REGISTERED} event is published for every row.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class ResultsCsvImporter {
+    private static final long MAPPING_WINDOW = 1L << 30;
+    private static final int BATCH_ROWS = 16384;
+
+    private final Stage stage;
+    private final IntFunction<Rider> riders;
+    private final PortalJournal journal;
+    private final PortalEventFeed events;
+    private final int raceId;
+    private final int width;
+    private final ResultsImportReport report = new ResultsImportReport();
+    private final IntIntHashMap seen = new IntIntHashMap();
+    private final int[] batchRiderIds = new int[BATCH_ROWS];
+    private final Rider[] batchRiders = new Rider[BATCH_ROWS];
+    private final long[] batchTimes;
+    private int batchSize;
+    private long line;
+
+    // Position reached by the last parse call and the value it produced.
+    private int cursor;
+    private long parsed;
+
+    ResultsCsvImporter(Stage stage, IntFunction<Rider> riders, PortalJournal journal, PortalEventFeed events, int raceId) {
+        this.stage = stage;
+        this.riders = riders;
+        this.journal = journal;
+        this.events = events;
+        this.raceId = raceId;
+        this.width = stage.getResultWidth();
+        this.batchTimes = new long[BATCH_ROWS * width];
+    }
+
+    ResultsImportReport importFile(Path path) throws IOException, InvalidStageStateException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long position = 0;
+            while (position < fileSize) {
+                long length = Math.min(MAPPING_WINDOW, fileSize - position);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = parseLines(buffer, (int) length, position + length == fileSize);
+                if (consumed == 0) {
+                    throw new IOException("Line " + (line + 1) + " is longer than the mapping window.");
+                }
+                position += consumed;
+            }
+        }
+        flush();
+        return report;
+    }
+
+    /**
+     * @return The report of the rows handled so far, including the batches
+     *         already applied when {@link #importFile(Path)} fails part-way.
+     */
+    ResultsImportReport getReport() {
+        return report;
+    }
+
+    /**
+     * Parses every complete line of the window.
+     *
+     * @return The number of bytes consumed. A trailing partial line is left for
+     *         the next window unless this is the end of the file.
+     */
+    private int parseLines(ByteBuffer buffer, int limit, boolean endOfFile) throws InvalidStageStateException {
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            if (end == limit && !endOfFile) {
+                break;
+            }
+            line++;
+            parseRow(buffer, start, end);
+            start = end + 1;
+        }
+        return Math.min(start, limit);
+    }
+
+    private void parseRow(ByteBuffer buffer, int from, int to) throws InvalidStageStateException {
+        if (to > from && buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        if (from == to) {
+            return;
+        }
+        if (!parseRiderId(buffer, from, to)) {
+            byte first = buffer.get(from);
+            if (line == 1 && (first < '0' || first > '9')) {
+                return;
+            }
+            report.rowRejected(line, ResultsImportReport.Reason.MALFORMED_ROW, "Expected a rider ID followed by times.");
+            return;
+        }
+        int riderId = (int) parsed;
+        int base = batchSize * width;
+        int columns = 0;
+        while (cursor < to) {
+            cursor++;
+            if (!parseTime(buffer, cursor, to)) {
+                report.rowRejected(line, ResultsImportReport.Reason.MALFORMED_ROW, "Time " + (columns + 1) + " is not a valid time.");
+                return;
+            }
+            if (columns < width) {
+                batchTimes[base + columns] = parsed;
+            }
+            columns++;
+        }
+        Rider rider = riders.apply(riderId);
+        if (rider == null) {
+            report.rowRejected(line, ResultsImportReport.Reason.RIDER_NOT_RECOGNISED, "Rider ID " + riderId + " not recognised.");
+        } else if (stage.hasResult(riderId)) {
+            report.rowRejected(line, ResultsImportReport.Reason.DUPLICATED_RESULT, "Rider " + riderId + " results already registered for this stage.");
+        } else if (seen.containsKey(riderId)) {
+            report.rowRejected(line, ResultsImportReport.Reason.DUPLICATED_RESULT, "Rider " + riderId + " already appears on line " + seen.get(riderId, 0) + ".");
+        } else if (columns != width) {
+            report.rowRejected(line, ResultsImportReport.Reason.INVALID_CHECKPOINT_TIMES, "Expected " + width + " times but found " + columns + ".");
+        } else {
+            seen.put(riderId, (int) Math.min(line, Integer.MAX_VALUE));
+            batchRiderIds[batchSize] = riderId;
+            batchRiders[batchSize++] = rider;
+            if (batchSize == BATCH_ROWS) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Parses the rider ID at the start of the row, leaving the cursor on the
+     * comma that ends it.
+     */
+    private boolean parseRiderId(ByteBuffer buffer, int from, int to) {
+        long value = 0;
+        int i = from;
+        while (i < to && buffer.get(i) != ',') {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                return false;
+            }
+            value = value * 10 + digit;
+            i++;
+        }
+        if (i == from || i == to || value > Integer.MAX_VALUE) {
+            return false;
+        }
+        cursor = i;
+        parsed = value;
+        return true;
+    }
+
+    /**
+     * Parses a time field as nanoseconds of the day, leaving the cursor on the
+     * comma that ends it or on the end of the row.
+     */
+    private boolean parseTime(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        int hours = 0;
+        int hourDigits = 0;
+        while (i < to && hourDigits < 3 && isDigit(buffer.get(i))) {
+            hours = hours * 10 + (buffer.get(i++) - '0');
+            hourDigits++;
+        }
+        if (hourDigits == 0 || hourDigits > 2 || hours > 23 || i + 6 > to || buffer.get(i) != ':'
+                || !isDigit(buffer.get(i + 1)) || !isDigit(buffer.get(i + 2)) || buffer.get(i + 3) != ':'
+                || !isDigit(buffer.get(i + 4)) || !isDigit(buffer.get(i + 5))) {
+            return false;
+        }
+        int minutes = (buffer.get(i + 1) - '0') * 10 + (buffer.get(i + 2) - '0');
+        int seconds = (buffer.get(i + 4) - '0') * 10 + (buffer.get(i + 5) - '0');
+        if (minutes > 59 || seconds > 59) {
+            return false;
+        }
+        i += 6;
+        long nanos = 0;
+        if (i < to && buffer.get(i) == '.') {
+            i++;
+            int digits = 0;
+            while (i < to && isDigit(buffer.get(i))) {
+                if (++digits > 9) {
+                    return false;
+                }
+                nanos = nanos * 10 + (buffer.get(i++) - '0');
+            }
+            if (digits == 0) {
+                return false;
+            }
+            for (; digits < 9; digits++) {
+                nanos *= 10;
+            }
+        }
+        if (i < to && buffer.get(i) != ',') {
+            return false;
+        }
+        cursor = i;
+        parsed = ((hours * 60L + minutes) * 60L + seconds) * 1_000_000_000L + nanos;
+        return true;
+    }
+
+    private void flush() throws InvalidStageStateException {
+        if (batchSize == 0) {
+            return;
+        }
+        try {
+            stage.registerRiderResults(batchRiderIds, batchTimes, batchSize);
+        } catch (DuplicatedResultException e) {
+            // Every row was checked against the stage and the file while holding the stage's lock.
+            throw new IllegalStateException(e);
+        }
+        for (int row = 0; row < batchSize; row++) {
+            batchRiders[row].resultRegistered(stage);
+            batchRiders[row] = null;
+        }
+        report.rowsRegistered(batchSize);
+        if (events != null) {
+            for (int row = 0; row < batchSize; row++) {
+                events.publish(PortalEventType.RESULT_REGISTERED, raceId, stage.getId(), batchRiderIds[row]);
+            }
+        }
+        if (journal != null) {
+            journal.resultsRegistered(stage.getId(), batchRiderIds, batchTimes, batchSize, width);
+        }
+        batchSize = 0;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
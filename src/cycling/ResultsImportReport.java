@@ -0,0 +1,115 @@
+package cycling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ResultsImportReport summarises an import of stage results from a file: how
+ * many rows were registered and, for every rejected row, why it was rejected.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+public class ResultsImportReport {
+
+    /**
+     * The reasons a row of an import can be rejected for.
+     */
+    public enum Reason {
+        /**
+         * The row could not be parsed as a rider ID followed by times.
+         */
+        MALFORMED_ROW,
+
+        /**
+         * The rider ID does not match any rider in the system.
+         */
+        RIDER_NOT_RECOGNISED,
+
+        /**
+         * The rider already has a result for the stage, or appears twice in the
+         * file. Equivalent to {@link DuplicatedResultException}.
+         */
+        DUPLICATED_RESULT,
+
+        /**
+         * The row does not hold n+2 times. Equivalent to
+         * {@link InvalidCheckpointTimesException}.
+         */
+        INVALID_CHECKPOINT_TIMES;
+    }
+
+    /**
+     * A rejected row of an import.
+     */
+    public static class RowError {
+        private final long line;
+        private final Reason reason;
+        private final String message;
+
+        RowError(long line, Reason reason, String message) {
+            this.line = line;
+            this.reason = reason;
+            this.message = message;
+        }
+
+        /**
+         * @return The one-based line number of the rejected row in the file.
+         */
+        public long getLine() {
+            return line;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + reason + " - " + message;
+        }
+    }
+
+    private long registeredRows;
+    private final List<RowError> errors = new ArrayList<>();
+
+    void rowsRegistered(int count) {
+        registeredRows += count;
+    }
+
+    void rowRejected(long line, Reason reason, String message) {
+        errors.add(new RowError(line, reason, message));
+    }
+
+    /**
+     * @return The number of rows whose results were registered.
+     */
+    public long getRegisteredRows() {
+        return registeredRows;
+    }
+
+    /**
+     * @return The number of rows that were rejected.
+     */
+    public int getRejectedRows() {
+        return errors.size();
+    }
+
+    /**
+     * @return The rejected rows, in file order.
+     */
+    public List<RowError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Registered rows: %d, Rejected rows: %d", registeredRows, errors.size());
+    }
+}
@@ -1,10 +1,16 @@
 package cycling;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 public class Rider {
     private int id;
     private String name;
     private int yearOfBirth;
     private Team team;
+    private final Set<Stage> stagesWithResults = new LinkedHashSet<>();
 
     public Rider(int id, String name, int yearOfBirth, Team team) {
         this.id = id;
@@ -28,4 +34,24 @@ public class Rider {
     public Team getTeam() {
         return team;
     }
+
+    /**
+     * Records that the rider has a result or live passages in the stage, so
+     * they can be found again without searching every stage.
+     */
+    synchronized void resultRegistered(Stage stage) {
+        stagesWithResults.add(stage);
+    }
+
+    synchronized void resultDeleted(Stage stage) {
+        stagesWithResults.remove(stage);
+    }
+
+    /**
+     * @return The stages the rider has results in, in the order the results
+     *         were registered.
+     */
+    synchronized List<Stage> getStagesWithResults() {
+        return new ArrayList<>(stagesWithResults);
+    }
 }
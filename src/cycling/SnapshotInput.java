@@ -0,0 +1,124 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SnapshotInput decodes the values written by {@link SnapshotOutput} from a
+ * buffer holding a whole snapshot, which may be memory-mapped. Truncated or
+ * corrupt input is reported as an {@link IOException}.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class SnapshotInput {
+    private final ByteBuffer buffer;
+
+    SnapshotInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    void seek(int position) {
+        buffer.position(position);
+    }
+
+    int readByte() throws IOException {
+        try {
+            return buffer.get() & 0xFF;
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    int readVarInt() throws IOException {
+        long value = readVarLong();
+        if ((value >>> 32) != 0) {
+            throw new IOException("Corrupt snapshot: varint out of range.");
+        }
+        return (int) value;
+    }
+
+    long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt snapshot: varint too long.");
+    }
+
+    long readZigZag() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    double readDouble() throws IOException {
+        try {
+            return buffer.getDouble();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    String readString() throws IOException {
+        int length = readVarInt();
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        if (length > buffer.remaining()) {
+            throw truncated();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skips over a length-prefixed block.
+     *
+     * @return The position of the first byte of the block's contents.
+     */
+    int skipBlock() throws IOException {
+        int length = readVarInt();
+        int start = buffer.position();
+        if (length > buffer.remaining()) {
+            throw truncated();
+        }
+        buffer.position(start + length);
+        return start;
+    }
+
+    /**
+     * Reads a length-prefixed block as an input of its own, sharing this
+     * input's bytes, and moves past it.
+     */
+    SnapshotInput readBlock() throws IOException {
+        int start = skipBlock();
+        ByteBuffer block = buffer.duplicate();
+        block.position(start).limit(buffer.position());
+        return new SnapshotInput(block.slice());
+    }
+
+    private static IOException truncated() {
+        return new IOException("Corrupt snapshot: unexpected end of data.");
+    }
+}
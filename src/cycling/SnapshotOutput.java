@@ -0,0 +1,156 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SnapshotOutput encodes the primitive values of the binary snapshot format:
+ * unsigned and zig-zag varints, IEEE doubles and length-prefixed UTF-8 strings.
+ * It either streams to a channel through a fixed buffer or, when created without
+ * a channel, grows in memory so a block can be measured before it is written.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class SnapshotOutput {
+    private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+
+    SnapshotOutput(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+    }
+
+    SnapshotOutput() {
+        this.channel = null;
+        this.buffer = ByteBuffer.allocate(256);
+    }
+
+    /**
+     * @return The number of bytes held in memory; only meaningful without a channel.
+     */
+    int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Discards the bytes held in memory so the output can be reused.
+     */
+    void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * @return A read-only view of the bytes held in memory; only meaningful
+     *         without a channel.
+     */
+    ByteBuffer contents() {
+        ByteBuffer contents = buffer.asReadOnlyBuffer();
+        contents.flip();
+        return contents;
+    }
+
+    void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    void writeInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    void writeVarInt(int value) throws IOException {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    void writeVarLong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    void writeZigZag(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeDouble(double value) throws IOException {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length plus one followed by its bytes, so a
+     * length of zero stands for null.
+     */
+    void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the contents of an in-memory output prefixed by its length.
+     */
+    void writeBlock(SnapshotOutput block) throws IOException {
+        ByteBuffer contents = block.buffer.duplicate();
+        contents.flip();
+        writeVarInt(contents.remaining());
+        if (channel != null && contents.remaining() > buffer.remaining()) {
+            flush();
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+        } else {
+            ensure(contents.remaining());
+            buffer.put(contents);
+        }
+    }
+
+    void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensure(Math.min(length, CHANNEL_BUFFER_SIZE));
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        if (channel != null) {
+            flush();
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
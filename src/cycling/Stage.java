@@ -1,18 +1,44 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
 
 public class Stage {
+    private static final long BUNCH_GAP_NANOS = 1_000_000_000L;
+    private static final CheckpointType[] CHECKPOINT_TYPES = CheckpointType.values();
+
     private int id;
     private String name;
     private String description;
     private double length;
     private LocalDateTime startTime;
     private StageType type;
-    private List<Checkpoint> checkpoints = new ArrayList<>();
-    private Map<Integer, LocalTime[]> results = new HashMap<>();
+    // Checkpoints as parallel arrays ordered by location. The times at the
+    // checkpoint in slot i are held in result column i + 1.
+    private int checkpointCount;
+    private int[] checkpointIds = new int[0];
+    private double[] checkpointLocations = new double[0];
+    private byte[] checkpointTypes = new byte[0];
+    // NaN where a checkpoint has no average gradient or length.
+    private double[] checkpointGradients = new double[0];
+    private double[] checkpointLengths = new double[0];
+    private final IntIntHashMap checkpointSlots = new IntIntHashMap();
+    private StageResults results = new StageResults();
+    private StageRanking ranking = new StageRanking();
+    private StageSnapshot snapshot = StageSnapshot.EMPTY;
+    private SnapshotInput deferredResults;
+    private int[] points = new int[0];
+    private int[] mountainPoints = new int[0];
+    private long[] adjusted = new long[0];
+    // Riders still on the road: their start time followed by their times at the
+    // checkpoints passed so far, until their result is registered.
+    private final Map<Integer, long[]> passages = new HashMap<>();
+    // For each checkpoint slot, the riders ranked by their time from the start
+    // to the checkpoint. Built on first use, then kept up to date.
+    private StageRanking[] splits;
     private boolean waitingForResults;
 
     public Stage(int id, String name, String description, double length, LocalDateTime startTime, StageType type) {
@@ -48,85 +74,611 @@ public class Stage {
         return type;
     }
 
-    public List<Checkpoint> getCheckpoints() {
+    /**
+     * @return The checkpoints of the stage ordered by location.
+     */
+    public synchronized List<Checkpoint> getCheckpoints() {
+        List<Checkpoint> checkpoints = new ArrayList<>(checkpointCount);
+        for (int i = 0; i < checkpointCount; i++) {
+            checkpoints.add(new Checkpoint(checkpointIds[i], checkpointLocations[i], CHECKPOINT_TYPES[checkpointTypes[i]],
+                    boxed(checkpointGradients[i]), boxed(checkpointLengths[i])));
+        }
         return checkpoints;
     }
 
-    public void addCheckpoint(Checkpoint checkpoint) {
-        checkpoints.add(checkpoint);
+    public synchronized int getNumberOfCheckpoints() {
+        return checkpointCount;
+    }
+
+    /**
+     * @return A copy of the checkpoint IDs ordered by location.
+     */
+    public synchronized int[] getCheckpointIds() {
+        return Arrays.copyOf(checkpointIds, checkpointCount);
+    }
+
+    /**
+     * @return The position of the checkpoint in location order, or -1 if it is
+     *         not in this stage. Its times are held in result column slot + 1.
+     */
+    synchronized int checkpointSlot(int checkpointId) {
+        return checkpointSlots.get(checkpointId, -1);
+    }
+
+    /**
+     * Inserts the checkpoint at its location. Checkpoints at the same location
+     * keep the order in which they were added.
+     */
+    public synchronized void addCheckpoint(Checkpoint checkpoint) {
+        double location = checkpoint.getLocation();
+        int low = 0;
+        int high = checkpointCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (checkpointLocations[middle] <= location) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (checkpointCount == checkpointIds.length) {
+            int capacity = Math.max(4, checkpointCount * 2);
+            checkpointIds = Arrays.copyOf(checkpointIds, capacity);
+            checkpointLocations = Arrays.copyOf(checkpointLocations, capacity);
+            checkpointTypes = Arrays.copyOf(checkpointTypes, capacity);
+            checkpointGradients = Arrays.copyOf(checkpointGradients, capacity);
+            checkpointLengths = Arrays.copyOf(checkpointLengths, capacity);
+        }
+        moveCheckpoints(low, low + 1, checkpointCount - low);
+        checkpointIds[low] = checkpoint.getId();
+        checkpointLocations[low] = location;
+        checkpointTypes[low] = (byte) checkpoint.getType().ordinal();
+        checkpointGradients[low] = unboxed(checkpoint.getAverageGradient());
+        checkpointLengths[low] = unboxed(checkpoint.getLength());
+        checkpointCount++;
+        indexCheckpoints(low);
+        splits = null;
+    }
+
+    public synchronized boolean removeCheckpointById(int checkpointId) {
+        int slot = checkpointSlots.get(checkpointId, -1);
+        if (slot < 0) {
+            return false;
+        }
+        checkpointSlots.remove(checkpointId);
+        moveCheckpoints(slot + 1, slot, checkpointCount - slot - 1);
+        checkpointCount--;
+        indexCheckpoints(slot);
+        splits = null;
+        return true;
     }
 
-    public boolean removeCheckpointById(int checkpointId) {
-        return checkpoints.removeIf(checkpoint -> checkpoint.getId() == checkpointId);
+    private void moveCheckpoints(int from, int to, int count) {
+        System.arraycopy(checkpointIds, from, checkpointIds, to, count);
+        System.arraycopy(checkpointLocations, from, checkpointLocations, to, count);
+        System.arraycopy(checkpointTypes, from, checkpointTypes, to, count);
+        System.arraycopy(checkpointGradients, from, checkpointGradients, to, count);
+        System.arraycopy(checkpointLengths, from, checkpointLengths, to, count);
     }
 
-    public void setWaitingForResults(boolean waitingForResults) {
+    private void indexCheckpoints(int from) {
+        for (int i = from; i < checkpointCount; i++) {
+            checkpointSlots.put(checkpointIds[i], i);
+        }
+    }
+
+    private static double unboxed(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static Double boxed(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    public synchronized boolean isWaitingForResults() {
+        return waitingForResults;
+    }
+
+    public synchronized void setWaitingForResults(boolean waitingForResults) {
+        loadDeferredResults();
+        if (waitingForResults && results.size() == 0) {
+            results.setWidth(checkpointCount + 2);
+        }
         this.waitingForResults = waitingForResults;
     }
 
-    public void registerRiderResults(Rider rider, LocalTime... checkpointTimes)
+    public synchronized void registerRiderResults(Rider rider, LocalTime... checkpointTimes)
             throws DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+        loadDeferredResults();
         if (waitingForResults) {
-            if (results.containsKey(rider.getId())) {
+            if (results.contains(rider.getId())) {
                 throw new DuplicatedResultException("Rider results already registered for this stage.");
             }
-            if (checkpointTimes.length != checkpoints.size() + 2) {
+            if (checkpointTimes.length != checkpointCount + 2) {
                 throw new InvalidCheckpointTimesException("Invalid number of checkpoint times.");
             }
-            results.put(rider.getId(), checkpointTimes);
+            for (LocalTime time : checkpointTimes) {
+                if (time == null) {
+                    throw new InvalidCheckpointTimesException("Checkpoint times cannot be null.");
+                }
+            }
+            removeSplits(rider.getId(), passages.remove(rider.getId()));
+            int slot = results.add(rider.getId(), checkpointTimes);
+            ranking.insert(rider.getId(), results.elapsedAt(slot));
+            if (splits != null) {
+                for (int i = 0; i < checkpointCount; i++) {
+                    splits[i].insert(rider.getId(), results.timeAt(slot, i + 1) - results.timeAt(slot, 0));
+                }
+            }
+            resultsChanged();
         } else {
             throw new InvalidStageStateException("Stage is not waiting for results.");
         }
     }
 
-    public LocalTime[] getRiderResults(int riderId) {
-        return results.getOrDefault(riderId, new LocalTime[0]);
+    /**
+     * Registers the results of many riders at once. Every row is validated before
+     * any is stored, so either all rows are registered or none is.
+     */
+    public synchronized void registerRiderResults(int[] riderIds, LocalTime[][] checkpointTimes)
+            throws DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+        if (!waitingForResults) {
+            throw new InvalidStageStateException("Stage is not waiting for results.");
+        }
+        int width = checkpointCount + 2;
+        long[] times = new long[riderIds.length * width];
+        for (int row = 0; row < riderIds.length; row++) {
+            LocalTime[] rowTimes = checkpointTimes[row];
+            if (rowTimes == null || rowTimes.length != width) {
+                throw new InvalidCheckpointTimesException("Invalid number of checkpoint times for rider " + riderIds[row] + ".");
+            }
+            for (int i = 0; i < width; i++) {
+                if (rowTimes[i] == null) {
+                    throw new InvalidCheckpointTimesException("Checkpoint times cannot be null.");
+                }
+                times[row * width + i] = rowTimes[i].toNanoOfDay();
+            }
+        }
+        registerRiderResults(riderIds, times, riderIds.length);
     }
 
-    public LocalTime getRiderAdjustedElapsedTime(int riderId) {
-        LocalTime[] times = results.get(riderId);
-        if (times == null) return null;
+    /**
+     * Registers {@code count} rows of nanosecond-of-day times laid out row by row,
+     * each as wide as the stage's results. Rejects the whole batch if any rider
+     * already has a result or appears twice.
+     */
+    synchronized void registerRiderResults(int[] riderIds, long[] times, int count)
+            throws DuplicatedResultException, InvalidStageStateException {
+        loadDeferredResults();
+        if (!waitingForResults) {
+            throw new InvalidStageStateException("Stage is not waiting for results.");
+        }
+        IntIntHashMap batch = new IntIntHashMap(count);
+        for (int row = 0; row < count; row++) {
+            if (results.contains(riderIds[row]) || batch.containsKey(riderIds[row])) {
+                throw new DuplicatedResultException("Rider " + riderIds[row] + " results already registered for this stage.");
+            }
+            batch.put(riderIds[row], row);
+        }
+        int width = results.width();
+        long[] elapsed = new long[count];
+        for (int row = 0; row < count; row++) {
+            removeSplits(riderIds[row], passages.remove(riderIds[row]));
+            int slot = results.add(riderIds[row], times, row * width);
+            elapsed[row] = results.elapsedAt(slot);
+        }
+        ranking.insertAll(riderIds, elapsed, count);
+        if (splits != null) {
+            long[] split = new long[count];
+            for (int i = 0; i < checkpointCount; i++) {
+                for (int row = 0; row < count; row++) {
+                    split[row] = times[row * width + i + 1] - times[row * width];
+                }
+                splits[i].insertAll(riderIds, split, count);
+            }
+        }
+        resultsChanged();
+    }
+
+    /**
+     * @return The stage's result store, for callers that already hold the
+     *         stage's lock or exclude writers by other means.
+     */
+    synchronized StageResults getResultStore() {
+        loadDeferredResults();
+        return results;
+    }
 
-        LocalTime startTime = times[0];
-        LocalTime finishTime = times[times.length - 1];
-        long elapsedTimeInSeconds = java.time.Duration.between(startTime, finishTime).getSeconds();
+    /**
+     * Keeps an encoded results block, as written by {@link PortalSnapshot}, to
+     * be decoded the first time the stage's results are used.
+     */
+    synchronized void deferResults(SnapshotInput block) {
+        deferredResults = block;
+    }
 
-        for (LocalTime time : times) {
-            long seconds = java.time.Duration.between(startTime, time).getSeconds();
-            if (seconds < elapsedTimeInSeconds) {
-                elapsedTimeInSeconds = seconds;
+    /**
+     * @return Whether the stage still holds an undecoded results block.
+     */
+    synchronized boolean hasDeferredResults() {
+        return deferredResults != null;
+    }
+
+    private void loadDeferredResults() {
+        if (deferredResults != null) {
+            SnapshotInput block = deferredResults;
+            deferredResults = null;
+            try {
+                PortalSnapshot.readResults(block, this);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupt results for stage " + id + ".", e);
             }
         }
-        return LocalTime.ofSecondOfDay(elapsedTimeInSeconds);
     }
 
-    public void deleteRiderResults(int riderId) {
+    synchronized boolean hasResult(int riderId) {
+        loadDeferredResults();
+        return results.contains(riderId);
+    }
+
+    /**
+     * @return The number of times in each result row: start, checkpoints and finish.
+     */
+    synchronized int getResultWidth() {
+        return results.width();
+    }
+
+    public synchronized LocalTime[] getRiderResults(int riderId) {
+        loadDeferredResults();
+        int slot = results.slotOf(riderId);
+        if (slot < 0) return new LocalTime[0];
+        return results.toLocalTimes(slot);
+    }
+
+    public synchronized LocalTime getRiderAdjustedElapsedTime(int riderId) {
+        loadDeferredResults();
+        int slot = results.slotOf(riderId);
+        if (slot < 0) return null;
+        return LocalTime.ofNanoOfDay(adjustedTimes()[ranking.indexOf(riderId, results.elapsedAt(slot))]);
+    }
+
+    /**
+     * Deletes the rider's result and any passages recorded for the rider.
+     *
+     * @return Whether the rider had a result.
+     */
+    public synchronized boolean deleteRiderResults(int riderId) {
+        loadDeferredResults();
+        removeSplits(riderId, passages.remove(riderId));
+        int slot = results.slotOf(riderId);
+        if (slot < 0) {
+            return false;
+        }
+        if (splits != null) {
+            for (int i = 0; i < checkpointCount; i++) {
+                splits[i].remove(riderId, results.timeAt(slot, i + 1) - results.timeAt(slot, 0));
+            }
+        }
+        ranking.remove(riderId, results.elapsedAt(slot));
         results.remove(riderId);
+        resultsChanged();
+        return true;
+    }
+
+    /**
+     * Deletes the results and passages of the first {@code count} riders of the
+     * array, updating the ranking once for all of them. Riders without a result
+     * are moved behind the others.
+     *
+     * @return The number of riders whose results were deleted, which are now
+     *         the first of the array.
+     */
+    synchronized int deleteRiderResults(int[] riderIds, int count) {
+        loadDeferredResults();
+        IntIntHashMap deleted = new IntIntHashMap(count);
+        for (int i = 0; i < count; i++) {
+            int riderId = riderIds[i];
+            removeSplits(riderId, passages.remove(riderId));
+            if (results.remove(riderId)) {
+                riderIds[i] = riderIds[deleted.size()];
+                riderIds[deleted.size()] = riderId;
+                deleted.put(riderId, i);
+            }
+        }
+        if (deleted.size() > 0) {
+            ranking.removeAll(deleted);
+            if (splits != null) {
+                for (StageRanking split : splits) {
+                    split.removeAll(deleted);
+                }
+            }
+            resultsChanged();
+        }
+        return deleted.size();
+    }
+
+    /**
+     * Records the times of a rider still on the road: the start time followed
+     * by the times at the checkpoints passed so far, in location order. The
+     * times replace any recorded for the rider before, and are replaced by the
+     * rider's result once it is registered.
+     */
+    synchronized void registerRiderPassages(int riderId, LocalTime... passageTimes)
+            throws DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+        loadDeferredResults();
+        if (!waitingForResults) {
+            throw new InvalidStageStateException("Stage is not waiting for results.");
+        }
+        if (results.contains(riderId)) {
+            throw new DuplicatedResultException("Rider results already registered for this stage.");
+        }
+        if (passageTimes.length < 2 || passageTimes.length > checkpointCount + 1) {
+            throw new InvalidCheckpointTimesException("Invalid number of passage times.");
+        }
+        long[] row = new long[passageTimes.length];
+        for (int i = 0; i < row.length; i++) {
+            if (passageTimes[i] == null) {
+                throw new InvalidCheckpointTimesException("Checkpoint times cannot be null.");
+            }
+            row[i] = passageTimes[i].toNanoOfDay();
+        }
+        removeSplits(riderId, passages.put(riderId, row));
+        if (splits != null) {
+            for (int i = 0; i + 1 < row.length; i++) {
+                splits[i].insert(riderId, row[i + 1] - row[0]);
+            }
+        }
     }
 
-    public int[] getRidersRank() {
-        return results.keySet().stream().sorted((r1, r2) -> {
-            LocalTime time1 = getRiderAdjustedElapsedTime(r1);
-            LocalTime time2 = getRiderAdjustedElapsedTime(r2);
-            return time1.compareTo(time2);
-        }).mapToInt(Integer::intValue).toArray();
+    /**
+     * @return The IDs of the riders with passages recorded but no result yet.
+     */
+    synchronized int[] getPassingRiderIds() {
+        return passages.keySet().stream().mapToInt(Integer::intValue).toArray();
     }
 
-    public LocalTime[] getRankedAdjustedElapsedTimes() {
-        return results.keySet().stream().sorted((r1, r2) -> {
-            LocalTime time1 = getRiderAdjustedElapsedTime(r1);
-            LocalTime time2 = getRiderAdjustedElapsedTime(r2);
-            return time1.compareTo(time2);
-        }).map(this::getRiderAdjustedElapsedTime).toArray(LocalTime[]::new);
+    /**
+     * @return Up to {@code count} riders ranked by their time from the start to
+     *         the checkpoint, riders still on the road included, or null if the
+     *         checkpoint is not in this stage.
+     */
+    synchronized int[] getRidersRankAtCheckpoint(int checkpointId, int count) {
+        loadDeferredResults();
+        int slot = checkpointSlots.get(checkpointId, -1);
+        if (slot < 0) {
+            return null;
+        }
+        StageRanking split = splits()[slot];
+        return split.riderIds(0, Math.min(count, split.size()));
     }
 
-    public int[] getRidersPoints() {
-        // Placeholder for points calculation
-        return new int[results.size()];
+    /**
+     * @return The times from the start to the checkpoint of the riders returned
+     *         by {@link #getRidersRankAtCheckpoint(int, int)}, or null if the
+     *         checkpoint is not in this stage.
+     */
+    synchronized LocalTime[] getRankedTimesAtCheckpoint(int checkpointId, int count) {
+        loadDeferredResults();
+        int slot = checkpointSlots.get(checkpointId, -1);
+        if (slot < 0) {
+            return null;
+        }
+        StageRanking split = splits()[slot];
+        LocalTime[] times = new LocalTime[Math.min(count, split.size())];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = LocalTime.ofNanoOfDay(split.elapsedAt(i));
+        }
+        return times;
     }
 
-    public int[] getRidersMountainPoints() {
-        // Placeholder for mountain points calculation
-        return new int[results.size()];
+    private StageRanking[] splits() {
+        if (splits == null) {
+            int count = results.size();
+            int[] riderIds = new int[count + passages.size()];
+            long[] times = new long[riderIds.length];
+            StageRanking[] built = new StageRanking[checkpointCount];
+            for (int i = 0; i < checkpointCount; i++) {
+                int n = 0;
+                for (int slot = 0; slot < count; slot++) {
+                    riderIds[n] = results.riderAt(slot);
+                    times[n++] = results.timeAt(slot, i + 1) - results.timeAt(slot, 0);
+                }
+                for (Map.Entry<Integer, long[]> passage : passages.entrySet()) {
+                    long[] row = passage.getValue();
+                    if (row.length > i + 1) {
+                        riderIds[n] = passage.getKey();
+                        times[n++] = row[i + 1] - row[0];
+                    }
+                }
+                built[i] = new StageRanking();
+                built[i].insertAll(riderIds, times, n);
+            }
+            splits = built;
+        }
+        return splits;
+    }
+
+    private void removeSplits(int riderId, long[] passage) {
+        if (splits != null && passage != null) {
+            for (int i = 0; i + 1 < passage.length; i++) {
+                splits[i].remove(riderId, passage[i + 1] - passage[0]);
+            }
+        }
+    }
+
+    public synchronized int[] getRidersRank() {
+        loadDeferredResults();
+        return ranking.riderIds();
+    }
+
+    /**
+     * @return The one-based position of the rider in this stage, or -1 if the
+     *         rider has no result registered.
+     */
+    public synchronized int getRiderRank(int riderId) {
+        loadDeferredResults();
+        int slot = results.slotOf(riderId);
+        if (slot < 0) return -1;
+        return ranking.indexOf(riderId, results.elapsedAt(slot)) + 1;
+    }
+
+    public synchronized LocalTime[] getRankedAdjustedElapsedTimes() {
+        loadDeferredResults();
+        long[] adjustedTimes = adjustedTimes();
+        LocalTime[] times = new LocalTime[adjustedTimes.length];
+        for (int i = 0; i < adjustedTimes.length; i++) {
+            times[i] = LocalTime.ofNanoOfDay(adjustedTimes[i]);
+        }
+        return times;
+    }
+
+    /**
+     * @return The riders ranked from the one-based position {@code from} to
+     *         {@code to}, both inclusive, cut short at the last ranked rider.
+     */
+    synchronized StageLeaderboard getLeaderboard(int from, int to) {
+        loadDeferredResults();
+        int size = ranking.size();
+        int start = Math.min(from - 1, size);
+        int end = (int) Math.min((long) to, size);
+        long[] adjustedTimes = adjustedTimes();
+        long leader = size == 0 ? 0 : adjustedTimes[0];
+        return new StageLeaderboard(id, start + 1, size, ranking.riderIds(start, end), Arrays.copyOfRange(adjustedTimes, start, end), leader);
+    }
+
+    /**
+     * @return The stage's ranking, adjusted times and points as of now. The
+     *         snapshot is cached until the results of the stage change.
+     */
+    synchronized StageSnapshot getSnapshot() {
+        loadDeferredResults();
+        if (snapshot == null) {
+            snapshot = new StageSnapshot(ranking.riderIds(), adjustedTimes(), stagePoints(), stageMountainPoints());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Discards the adjusted times and points derived from the ranking and
+     * computes the snapshot again.
+     */
+    synchronized StageSnapshot recomputeSnapshot() {
+        loadDeferredResults();
+        resultsChanged();
+        return getSnapshot();
+    }
+
+    public synchronized int[] getRidersPoints() {
+        loadDeferredResults();
+        return stagePoints().clone();
+    }
+
+    public synchronized int[] getRidersMountainPoints() {
+        loadDeferredResults();
+        return stageMountainPoints().clone();
+    }
+
+    private void resultsChanged() {
+        snapshot = null;
+        points = null;
+        mountainPoints = null;
+        adjusted = null;
+    }
+
+    /**
+     * Computes the adjusted elapsed times of all riders, in finishing order, in
+     * one sweep over the ranking: a rider finishing less than one second after
+     * the rider ahead gets that rider's adjusted time, so a whole bunch shares
+     * the time of its first rider. Time-trials are not adjusted. The times are
+     * cached until the results of the stage change and must not be modified.
+     */
+    private long[] adjustedTimes() {
+        if (adjusted == null) {
+            long[] times = ranking.elapsedTimes();
+            if (type != StageType.TT) {
+                long previous = Long.MIN_VALUE;
+                for (int i = 0; i < times.length; i++) {
+                    long elapsed = times[i];
+                    if (i > 0 && elapsed - previous < BUNCH_GAP_NANOS) {
+                        times[i] = times[i - 1];
+                    }
+                    previous = elapsed;
+                }
+            }
+            adjusted = times;
+        }
+        return adjusted;
+    }
+
+    /**
+     * Computes the finish and intermediate sprint points once per change of
+     * results, in finishing order.
+     */
+    private int[] stagePoints() {
+        if (points == null) {
+            int count = ranking.size();
+            int[] awarded = new int[count];
+            int[] finish = PointsTables.finish(type);
+            for (int i = 0; i < Math.min(count, finish.length); i++) {
+                awarded[i] = finish[i];
+            }
+            if (count > 0) {
+                int[] rankOfSlot = rankOfSlot();
+                for (int i = 0; i < checkpointCount; i++) {
+                    if (checkpointTypes[i] == CheckpointType.SPRINT.ordinal()) {
+                        awardCheckpoint(i + 1, PointsTables.sprint(), awarded, rankOfSlot);
+                    }
+                }
+            }
+            points = awarded;
+        }
+        return points;
+    }
+
+    /**
+     * Computes the mountain points of every categorised climb once per change of
+     * results, in finishing order.
+     */
+    private int[] stageMountainPoints() {
+        if (mountainPoints == null) {
+            int[] awarded = new int[ranking.size()];
+            if (awarded.length > 0) {
+                int[] rankOfSlot = rankOfSlot();
+                for (int i = 0; i < checkpointCount; i++) {
+                    CheckpointType checkpointType = CHECKPOINT_TYPES[checkpointTypes[i]];
+                    if (checkpointType != CheckpointType.SPRINT) {
+                        awardCheckpoint(i + 1, PointsTables.mountain(checkpointType), awarded, rankOfSlot);
+                    }
+                }
+            }
+            mountainPoints = awarded;
+        }
+        return mountainPoints;
+    }
+
+    /**
+     * Adds the points of a table to the riders crossing the checkpoint held in
+     * the given result column first.
+     */
+    private void awardCheckpoint(int column, int[] table, int[] awarded, int[] rankOfSlot) {
+        int count = results.size();
+        int[] riderIds = new int[count];
+        long[] times = new long[count];
+        for (int slot = 0; slot < count; slot++) {
+            riderIds[slot] = results.riderAt(slot);
+            times[slot] = results.timeAt(slot, column) - results.timeAt(slot, 0);
+        }
+        StageRanking.sort(riderIds, times, count);
+        for (int i = 0; i < Math.min(count, table.length); i++) {
+            awarded[rankOfSlot[results.slotOf(riderIds[i])]] += table[i];
+        }
+    }
+
+    private int[] rankOfSlot() {
+        int[] rankOfSlot = new int[results.size()];
+        for (int i = 0; i < ranking.size(); i++) {
+            rankOfSlot[results.slotOf(ranking.riderAt(i))] = i;
+        }
+        return rankOfSlot;
     }
 }
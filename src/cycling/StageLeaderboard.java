@@ -0,0 +1,101 @@
+package cycling;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+/**
+ * StageLeaderboard is a slice of a stage's ranking: the riders between two
+ * positions with their adjusted elapsed times and their gaps to the stage
+ * leader, as returned by {@link CyclingPortalImpl#getStageLeaderboard(int, int, int)}.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+public class StageLeaderboard {
+    private final int stageId;
+    private final int firstPosition;
+    private final int totalRiders;
+    private final int[] riderIds;
+    private final long[] adjustedNanos;
+    private final long leaderNanos;
+
+    StageLeaderboard(int stageId, int firstPosition, int totalRiders, int[] riderIds, long[] adjustedNanos, long leaderNanos) {
+        this.stageId = stageId;
+        this.firstPosition = firstPosition;
+        this.totalRiders = totalRiders;
+        this.riderIds = riderIds;
+        this.adjustedNanos = adjustedNanos;
+        this.leaderNanos = leaderNanos;
+    }
+
+    public int getStageId() {
+        return stageId;
+    }
+
+    /**
+     * @return The one-based position of the first rider of the slice.
+     */
+    public int getFirstPosition() {
+        return firstPosition;
+    }
+
+    /**
+     * @return The number of riders ranked in the whole stage.
+     */
+    public int getTotalRiders() {
+        return totalRiders;
+    }
+
+    /**
+     * @return The number of riders in the slice.
+     */
+    public int size() {
+        return riderIds.length;
+    }
+
+    /**
+     * @return The IDs of the riders in the slice, in finishing order.
+     */
+    public int[] getRiderIds() {
+        return riderIds.clone();
+    }
+
+    /**
+     * @return The adjusted elapsed times of the riders, in the order of
+     *         {@link #getRiderIds()}.
+     */
+    public LocalTime[] getAdjustedElapsedTimes() {
+        LocalTime[] times = new LocalTime[adjustedNanos.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = LocalTime.ofNanoOfDay(adjustedNanos[i]);
+        }
+        return times;
+    }
+
+    /**
+     * @return How far each rider finished behind the stage leader, in the order
+     *         of {@link #getRiderIds()}.
+     */
+    public Duration[] getGapsToLeader() {
+        Duration[] gaps = new Duration[adjustedNanos.length];
+        for (int i = 0; i < gaps.length; i++) {
+            gaps[i] = Duration.ofNanos(adjustedNanos[i] - leaderNanos);
+        }
+        return gaps;
+    }
+
+    @Override
+    public String toString() {
+        if (riderIds.length == 0) {
+            return "Stage " + stageId + ", no riders from position " + firstPosition + " of " + totalRiders;
+        }
+        StringBuilder builder = new StringBuilder("Stage ").append(stageId).append(", positions ").append(firstPosition)
+                .append(" to ").append(firstPosition + riderIds.length - 1).append(" of ").append(totalRiders);
+        for (int i = 0; i < riderIds.length; i++) {
+            builder.append("\n").append(firstPosition + i).append(". Rider ").append(riderIds[i]).append(" ")
+                    .append(LocalTime.ofNanoOfDay(adjustedNanos[i])).append(" +").append(Duration.ofNanos(adjustedNanos[i] - leaderNanos));
+        }
+        return builder.toString();
+    }
+}
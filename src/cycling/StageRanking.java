@@ -0,0 +1,203 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * StageRanking keeps the riders of a stage ordered by elapsed time as results
+ * are registered and deleted, so rankings never have to be re-sorted on query.
+ * Riders with the same elapsed time are ordered by ID.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class StageRanking {
+    private int[] riderIds = new int[16];
+    private long[] elapsed = new long[16];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    void insert(int riderId, long elapsedNanos) {
+        int index = search(riderId, elapsedNanos);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == riderIds.length) {
+            riderIds = Arrays.copyOf(riderIds, size * 2);
+            elapsed = Arrays.copyOf(elapsed, size * 2);
+        }
+        System.arraycopy(riderIds, index, riderIds, index + 1, size - index);
+        System.arraycopy(elapsed, index, elapsed, index + 1, size - index);
+        riderIds[index] = riderId;
+        elapsed[index] = elapsedNanos;
+        size++;
+    }
+
+    /**
+     * Inserts many riders at once: the new entries are sorted and merged into
+     * the ranking in a single pass instead of shifting the arrays per rider.
+     */
+    void insertAll(int[] newRiderIds, long[] newElapsed, int count) {
+        int[] ids = Arrays.copyOf(newRiderIds, count);
+        long[] keys = Arrays.copyOf(newElapsed, count);
+        sort(ids, keys, count);
+        int total = size + count;
+        int[] mergedIds = new int[Math.max(16, total)];
+        long[] mergedElapsed = new long[mergedIds.length];
+        int left = 0;
+        int right = 0;
+        for (int i = 0; i < total; i++) {
+            boolean takeLeft = right >= count || (left < size && (elapsed[left] < keys[right]
+                    || (elapsed[left] == keys[right] && riderIds[left] <= ids[right])));
+            if (takeLeft) {
+                mergedIds[i] = riderIds[left];
+                mergedElapsed[i] = elapsed[left++];
+            } else {
+                mergedIds[i] = ids[right];
+                mergedElapsed[i] = keys[right++];
+            }
+        }
+        riderIds = mergedIds;
+        elapsed = mergedElapsed;
+        size = total;
+    }
+
+    void remove(int riderId, long elapsedNanos) {
+        int index = search(riderId, elapsedNanos);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(riderIds, index + 1, riderIds, index, size - index - 1);
+        System.arraycopy(elapsed, index + 1, elapsed, index, size - index - 1);
+        size--;
+    }
+
+    /**
+     * Removes every rider in the set in one pass over the ranking, keeping the
+     * others in order.
+     *
+     * @return The number of riders removed.
+     */
+    int removeAll(IntIntHashMap riders) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!riders.containsKey(riderIds[i])) {
+                riderIds[kept] = riderIds[i];
+                elapsed[kept] = elapsed[i];
+                kept++;
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return The zero-based position of the rider, or a negative value if the
+     *         rider is not ranked with the given elapsed time.
+     */
+    int indexOf(int riderId, long elapsedNanos) {
+        int index = search(riderId, elapsedNanos);
+        return index >= 0 ? index : -1;
+    }
+
+    int riderAt(int index) {
+        return riderIds[index];
+    }
+
+    long elapsedAt(int index) {
+        return elapsed[index];
+    }
+
+    int[] riderIds() {
+        return Arrays.copyOf(riderIds, size);
+    }
+
+    long[] elapsedTimes() {
+        return Arrays.copyOf(elapsed, size);
+    }
+
+    /**
+     * @return The rider IDs at indexes {@code from} (inclusive) to {@code to}
+     *         (exclusive) of the ranking.
+     */
+    int[] riderIds(int from, int to) {
+        return Arrays.copyOfRange(riderIds, from, to);
+    }
+
+    long[] elapsedTimes(int from, int to) {
+        return Arrays.copyOfRange(elapsed, from, to);
+    }
+
+    /**
+     * Sorts the first {@code count} entries of two parallel arrays ascending by
+     * key and then by rider ID, without boxing either.
+     */
+    static void sort(int[] riderIds, long[] keys, int count) {
+        if (count < 2) {
+            return;
+        }
+        int[] idBuffer = new int[count];
+        long[] keyBuffer = new long[count];
+        mergeSort(riderIds, keys, idBuffer, keyBuffer, 0, count);
+    }
+
+    private static void mergeSort(int[] ids, long[] keys, int[] idBuffer, long[] keyBuffer, int from, int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int id = ids[i];
+                long key = keys[i];
+                int j = i - 1;
+                while (j >= from && (keys[j] > key || (keys[j] == key && ids[j] > id))) {
+                    ids[j + 1] = ids[j];
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                ids[j + 1] = id;
+                keys[j + 1] = key;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(ids, keys, idBuffer, keyBuffer, from, mid);
+        mergeSort(ids, keys, idBuffer, keyBuffer, mid, to);
+        System.arraycopy(ids, from, idBuffer, from, to - from);
+        System.arraycopy(keys, from, keyBuffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            boolean takeLeft = right >= to || (left < mid && (keyBuffer[left] < keyBuffer[right]
+                    || (keyBuffer[left] == keyBuffer[right] && idBuffer[left] <= idBuffer[right])));
+            int source = takeLeft ? left++ : right++;
+            ids[i] = idBuffer[source];
+            keys[i] = keyBuffer[source];
+        }
+    }
+
+    private int search(int riderId, long elapsedNanos) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = elapsed[mid] != elapsedNanos
+                    ? Long.compare(elapsed[mid], elapsedNanos)
+                    : Integer.compare(riderIds[mid], riderId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,132 @@
+package cycling;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/**
+ * StageResults stores the checkpoint times of a stage as a dense matrix of
+ * nanosecond-of-day values, one row per rider slot, instead of one
+ * {@link LocalTime} object per checkpoint per rider. {@link LocalTime} values are
+ * only created when a row is read back through the portal.
+ * <p>
+ * Deleting a result moves the last row into the freed slot, so rows are always
+ * contiguous.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class StageResults {
+    private final IntIntHashMap slots = new IntIntHashMap();
+    private int[] riderIds = new int[16];
+    private long[] times = new long[0];
+    private int width;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of times held per rider: the start, every checkpoint
+     *         and the finish.
+     */
+    int width() {
+        return width;
+    }
+
+    /**
+     * Sets the row width. Only allowed while the store is empty.
+     */
+    void setWidth(int width) {
+        if (size != 0) {
+            throw new IllegalStateException("Row width cannot change while results are stored.");
+        }
+        this.width = width;
+        this.times = new long[riderIds.length * width];
+    }
+
+    boolean contains(int riderId) {
+        return slots.containsKey(riderId);
+    }
+
+    /**
+     * @return The slot holding the rider's row, or -1 if the rider has no result.
+     */
+    int slotOf(int riderId) {
+        return slots.get(riderId, -1);
+    }
+
+    int riderAt(int slot) {
+        return riderIds[slot];
+    }
+
+    long timeAt(int slot, int column) {
+        return times[slot * width + column];
+    }
+
+    long elapsedAt(int slot) {
+        int row = slot * width;
+        return times[row + width - 1] - times[row];
+    }
+
+    /**
+     * Appends a row copied from {@code row[offset]} to {@code row[offset + width - 1]}.
+     *
+     * @return The slot the row was stored in.
+     */
+    int add(int riderId, long[] row, int offset) {
+        int slot = allocate(riderId);
+        System.arraycopy(row, offset, times, slot * width, width);
+        return slot;
+    }
+
+    int add(int riderId, LocalTime[] row) {
+        int slot = allocate(riderId);
+        int base = slot * width;
+        for (int i = 0; i < width; i++) {
+            times[base + i] = row[i].toNanoOfDay();
+        }
+        return slot;
+    }
+
+    boolean remove(int riderId) {
+        int slot = slots.get(riderId, -1);
+        if (slot < 0) {
+            return false;
+        }
+        slots.remove(riderId);
+        int last = --size;
+        if (slot != last) {
+            riderIds[slot] = riderIds[last];
+            System.arraycopy(times, last * width, times, slot * width, width);
+            slots.put(riderIds[slot], slot);
+        }
+        return true;
+    }
+
+    LocalTime[] toLocalTimes(int slot) {
+        LocalTime[] row = new LocalTime[width];
+        int base = slot * width;
+        for (int i = 0; i < width; i++) {
+            row[i] = LocalTime.ofNanoOfDay(times[base + i]);
+        }
+        return row;
+    }
+
+    void clear() {
+        slots.clear();
+        size = 0;
+    }
+
+    private int allocate(int riderId) {
+        if (size == riderIds.length) {
+            riderIds = Arrays.copyOf(riderIds, size * 2);
+            times = Arrays.copyOf(times, size * 2 * width);
+        }
+        int slot = size++;
+        riderIds[slot] = riderId;
+        slots.put(riderId, slot);
+        return slot;
+    }
+}
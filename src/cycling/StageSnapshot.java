@@ -0,0 +1,31 @@
+package cycling;
+
+/**
+ * StageSnapshot is an immutable view of a stage's classification at one point
+ * in time: the riders in finishing order with their adjusted elapsed times and
+ * the points they earned. Race classifications keep the last snapshot they
+ * applied for each stage so it can be taken back out when the stage changes.
+ *
+ * @author Ahnaf Tahmid Haque
+ * @version 1.0
+ *
+ */
+class StageSnapshot {
+    static final StageSnapshot EMPTY = new StageSnapshot(new int[0], new long[0], new int[0], new int[0]);
+
+    final int[] riderIds;
+    final long[] adjustedNanos;
+    final int[] points;
+    final int[] mountainPoints;
+
+    StageSnapshot(int[] riderIds, long[] adjustedNanos, int[] points, int[] mountainPoints) {
+        this.riderIds = riderIds;
+        this.adjustedNanos = adjustedNanos;
+        this.points = points;
+        this.mountainPoints = mountainPoints;
+    }
+
+    int size() {
+        return riderIds.length;
+    }
+}
@@ -8,6 +8,7 @@ public class Team {
     private String name;
     private String description;
     private List<Rider> riders = new ArrayList<>();
+    private int[] riderIds = new int[0];
 
     public Team(int id, String name, String description) {
         this.id = id;
@@ -31,11 +32,27 @@ public class Team {
         return riders;
     }
 
-    public void addRider(Rider rider) {
+    /**
+     * @return A copy of the rider IDs in the order the riders joined, which is
+     *         ascending. The array is rebuilt only after the riders change.
+     */
+    public synchronized int[] getRiderIds() {
+        if (riderIds == null) {
+            riderIds = new int[riders.size()];
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = riders.get(i).getId();
+            }
+        }
+        return riderIds.clone();
+    }
+
+    public synchronized void addRider(Rider rider) {
         riders.add(rider);
+        riderIds = null;
     }
 
-    public void removeRider(Rider rider) {
+    public synchronized void removeRider(Rider rider) {
         riders.remove(rider);
+        riderIds = null;
     }
 }